@@ -2,9 +2,6 @@ package com.tmck.svi;
 
 import com.tmck.svi.valueobjs.OptionData;
 
-import java.util.HashMap;
-import java.util.Map;
-
 
 /**
  * Calculate Option values using the Black Scholes formula - No dividends for now!
@@ -23,12 +20,21 @@ public class BlackScholes {
      */
     public static final double MIN_DTE = 3d;
 
+    /**
+     * The largest IV the model accepts. IVs above 100% do trade near expiry and in meme names, much larger ones
+     * are more likely an IV quoted in percent.
+     */
+    public static final double MAX_IV = 5d;
+
     // TODO this should be parameterized!
     public static final double RISK_FREE_RATE_OF_RETURN = 0;
+
+    private static final double SQRT_2PI = Math.sqrt(2 * Math.PI);
+
     /**
-     * Cached for performance.
+     * Read on every price and Greek so it is volatile rather than locked.
      */
-    private static Map<Double, Double> dteToYearsMap = new HashMap<Double, Double>();
+    private static volatile CumulativeNormal cumulativeNormal = CumulativeNormal.ABRAMOWITZ_STEGUN;
 
     /**
      * From Wikipedia Greeks (Finance)
@@ -65,11 +71,11 @@ public class BlackScholes {
 
         double T = convertDteToYears(dte);
 
-        // IV should be between (0, 1) but is oftern quoted between (0, 100)
-        // it would be extremely rare for an IV quoted from 0,100 to be below 1
+        // IV should be between (0, MAX_IV) but is oftern quoted between (0, 100)
+        // it would be extremely rare for an IV quoted from 0,100 to be below MAX_IV
         // so we convert it.
-        if (v > 1d) {
-            throw new IllegalStateException("IV should be between (0, 1)");
+        if (v > MAX_IV) {
+            throw new IllegalStateException("IV should be between (0, " + MAX_IV + ")");
         }
 
         double d1 = d1(S, X, dte, r, v);
@@ -124,11 +130,11 @@ public class BlackScholes {
 
     public static double vomma(double d1, double dte, double v, double vega) {
 
-        // IV should be between (0, 1) but is often quoted between (0, 100)
-        // it would be extremely rare for an IV quoted from 0,100 to be below 1
+        // IV should be between (0, MAX_IV) but is often quoted between (0, 100)
+        // it would be extremely rare for an IV quoted from 0,100 to be below MAX_IV
         // so we convert it.
-        if (v > 1d) {
-            throw new IllegalStateException("IV should be between (0, 1)");
+        if (v > MAX_IV) {
+            throw new IllegalStateException("IV should be between (0, " + MAX_IV + ")");
         }
 
         double d2 = d2(d1, v, dte);
@@ -154,11 +160,11 @@ public class BlackScholes {
 
     public static double vanna(double d1, double dte, double v) {
 
-        // IV should be between (0, 1) but is often quoted between (0, 100)
-        // it would be extremely rare for an IV quoted from 0,100 to be below 1
+        // IV should be between (0, MAX_IV) but is often quoted between (0, 100)
+        // it would be extremely rare for an IV quoted from 0,100 to be below MAX_IV
         // so we convert it.
-        if (v > 1d) {
-            throw new IllegalStateException("IV should be between (0, 1)");
+        if (v > MAX_IV) {
+            throw new IllegalStateException("IV should be between (0, " + MAX_IV + ")");
         }
 
         double d2 = d2(d1, v, dte);
@@ -188,11 +194,11 @@ public class BlackScholes {
 
         double T = convertDteToYears(dte);
 
-        // IV should be between (0, 1) but is oftern quoted between (0, 100)
-        // it would be extremely rare for an IV quoted from 0,100 to be below 1
+        // IV should be between (0, MAX_IV) but is oftern quoted between (0, 100)
+        // it would be extremely rare for an IV quoted from 0,100 to be below MAX_IV
         // so we convert it.
-        if (v > 1d) {
-            throw new IllegalStateException("IV should be between (0, 1)");
+        if (v > MAX_IV) {
+            throw new IllegalStateException("IV should be between (0, " + MAX_IV + ")");
         }
 
         double d1 = d1(S, X, dte, r, v);
@@ -213,11 +219,11 @@ public class BlackScholes {
      */
     public static double delta(boolean isCallOption, double S, double X, double dte, double r, double v) {
 
-        // IV should be between (0, 1) but is oftern quoted between (0, 100)
-        // it would be extremely rare for an IV quoted from 0,100 to be below 1
+        // IV should be between (0, MAX_IV) but is oftern quoted between (0, 100)
+        // it would be extremely rare for an IV quoted from 0,100 to be below MAX_IV
         // so we convert it.
-        if (v > 1d) {
-            throw new IllegalStateException("IV should be between (0, 1)");
+        if (v > MAX_IV) {
+            throw new IllegalStateException("IV should be between (0, " + MAX_IV + ")");
         }
 
         double d1 = d1(S, X, dte, r, v);
@@ -273,11 +279,11 @@ public class BlackScholes {
 
         double T = convertDteToYears(dte);
 
-        // IV should be between (0, 1) but is often quoted between (0, 100)
-        // it would be extremely rare for an IV quoted from 0,100 to be below 1
+        // IV should be between (0, MAX_IV) but is often quoted between (0, 100)
+        // it would be extremely rare for an IV quoted from 0,100 to be below MAX_IV
         // so we convert it.
-        if (v > 1d) {
-            throw new IllegalStateException("IV should be between (0, 1)");
+        if (v > MAX_IV) {
+            throw new IllegalStateException("IV should be between (0, " + MAX_IV + ")");
         }
 
         return d1 - v * Math.sqrt(T);
@@ -305,8 +311,8 @@ public class BlackScholes {
             throw new IllegalStateException("Negative IV: " + v);
         }
 
-        if (v > 1) {
-            throw new IllegalStateException("IV should be between (0, 1): " + v);
+        if (v > MAX_IV) {
+            throw new IllegalStateException("IV should be between (0, " + MAX_IV + "): " + v);
         }
 
         if (Double.isNaN(v)) {
@@ -375,7 +381,11 @@ public class BlackScholes {
     }
 
     /**
-     * The Newton Raphson method for finding the IV using Black Scholes.
+     * Find the IV using Black Scholes.
+     * <p>
+     * Valid prices are solved to near machine precision by {@link ImpliedVolatility} and capped at {@link #MAX_IV}.
+     * A price at or below intrinsic value or above the most the option can be worth has no useful IV, so for those
+     * the bisection on (0, 1) is kept which returns an IV near 0 or 1 like it always has.
      *
      * @param S           - the current price of the stock
      * @param X           - the strike price of the option
@@ -383,10 +393,40 @@ public class BlackScholes {
      * @param r           - the risk free rate of return as a decimal. (e.g. a 2.5% risk free rate would be passed in as 2.5d/100d or 0.0025)
      * @param optionPrice - the price of a single option not a contract.
      * @return The implied volatility expressed as a decimal (e.g. a 25 IV would be returned as .25)
-     * @see "http://www.softwareandfinance.com/Derivatives/OptionsPricingModel/ImpliedOptionsVolatility.html"
+     * @see ImpliedVolatility#solve(boolean, double, double, double, double, double, double[], int) for the status of the solution.
      */
     public static double impliedVolatility(boolean isCallOption, double S, double X, double T, double r, double optionPrice) {
 
+        double[] iv = new double[1];
+        int status = ImpliedVolatility.solve(isCallOption, S, X, T, r, optionPrice, iv, 0);
+        return impliedVolatility(isCallOption, S, X, T, r, optionPrice, iv[0], status);
+
+    }
+
+    /**
+     * Caps or replaces a solution of {@link ImpliedVolatility} like
+     * {@link #impliedVolatility(boolean, double, double, double, double, double)} does.
+     *
+     * @param iv     - the IV from {@link ImpliedVolatility}.
+     * @param status - its status.
+     */
+    static double impliedVolatility(boolean isCallOption, double S, double X, double T, double r, double optionPrice, double iv, int status) {
+
+        if (status == ImpliedVolatility.STATUS_OK && iv > 0) {
+            return Math.min(iv, MAX_IV);
+        }
+
+        return impliedVolatilityByBisection(isCallOption, S, X, T, r, optionPrice);
+
+    }
+
+    /**
+     * The bisection method for finding the IV using Black Scholes to within .001.
+     *
+     * @see "http://www.softwareandfinance.com/Derivatives/OptionsPricingModel/ImpliedOptionsVolatility.html"
+     */
+    public static double impliedVolatilityByBisection(boolean isCallOption, double S, double X, double T, double r, double optionPrice) {
+
         double cpTest = 0;
 
         // An IV > 1 would represent an arbitrage opportunity!!!
@@ -424,7 +464,9 @@ public class BlackScholes {
 
     /**
      * @see "http://finance.bi.no/~bernt/gcc_prog/algoritms_v1/algoritms/node8.html"
+     * @deprecated returns -99e10 when it fails, use {@link ImpliedVolatility}.
      */
+    @Deprecated
     public static double impliedVolatilityNewtonRaphson(
             boolean call, double S, double X, double r, double T, double option_price) {
         // check for arbitrage violations:
@@ -474,11 +516,11 @@ public class BlackScholes {
 
         double T = convertDteToYears(dte);
 
-        // IV should be between (0, 1) but is often quoted between (0, 100)
-        // it would be extremely rare for an IV quoted from 0,100 to be below 1
+        // IV should be between (0, MAX_IV) but is often quoted between (0, 100)
+        // it would be extremely rare for an IV quoted from 0,100 to be below MAX_IV
         // so we convert it.
-        if (v > 1d) {
-            throw new IllegalStateException("IV should be between (0, 1): " + v);
+        if (v > MAX_IV) {
+            throw new IllegalStateException("IV should be between (0, " + MAX_IV + "): " + v);
         }
 
         double d1 = d1(S, X, dte, r, v);
@@ -519,8 +561,8 @@ public class BlackScholes {
     public static double optionPrice(OptionData data, double r) {
 
         double iv = data.getIV();
-        if (iv > 1d) {
-            iv = 1d;
+        if (iv > MAX_IV) {
+            iv = MAX_IV;
         }
 
         return optionPrice(data, iv, r);
@@ -559,11 +601,11 @@ public class BlackScholes {
 
         double T = convertDteToYears(dte);
 
-        // IV should be between (0, 1) but is oftern quoted between (0, 100)
-        // it would be extremely rare for an IV quoted from 0,100 to be below 1
+        // IV should be between (0, MAX_IV) but is oftern quoted between (0, 100)
+        // it would be extremely rare for an IV quoted from 0,100 to be below MAX_IV
         // so we convert it.
-        if (v > 1d) {
-            throw new IllegalStateException("IV should be between (0, 1)");
+        if (v > MAX_IV) {
+            throw new IllegalStateException("IV should be between (0, " + MAX_IV + ")");
         }
 
         double d1 = d1(S, X, dte, r, v);
@@ -595,11 +637,11 @@ public class BlackScholes {
 
         double T = convertDteToYears(dte);
 
-        // IV should be between (0, 1) but is often quoted between (0, 100)
-        // it would be extremely rare for an IV quoted from 0,100 to be below 1
+        // IV should be between (0, MAX_IV) but is often quoted between (0, 100)
+        // it would be extremely rare for an IV quoted from 0,100 to be below MAX_IV
         // so we convert it.
-        if (v > 1d) {
-            throw new IllegalStateException("IV should be between (0, 1)");
+        if (v > MAX_IV) {
+            throw new IllegalStateException("IV should be between (0, " + MAX_IV + ")");
         }
 
 
@@ -614,18 +656,29 @@ public class BlackScholes {
 
     /**
      * The cumulative normal distribution function.
+     *
+     * @see #setCumulativeNormal(CumulativeNormal)
      */
     public static double CND(double x) {
-        int neg = (x < 0d) ? 1 : 0;
-        if (neg == 1)
-            x *= -1d;
+        return cumulativeNormal.cdf(x);
+    }
 
-        double k = (1d / (1d + 0.2316419 * x));
-        double y = ((((1.330274429 * k - 1.821255978) * k + 1.781477937) *
-                k - 0.356563782) * k + 0.319381530) * k;
-        y = 1.0 - 0.398942280401 * Math.exp(-0.5 * x * x) * y;
+    public static CumulativeNormal getCumulativeNormal() {
+        return cumulativeNormal;
+    }
+
+    /**
+     * Select the cumulative normal of every price and Greek, e.g. {@link CumulativeNormal#WEST} for accuracy or
+     * {@link CumulativeNormal#TABLE} for speed.
+     */
+    public static void setCumulativeNormal(CumulativeNormal cumulativeNormal) {
+
+        if (cumulativeNormal == null) {
+            throw new IllegalArgumentException("cumulativeNormal must not be null");
+        }
+
+        BlackScholes.cumulativeNormal = cumulativeNormal;
 
-        return (1d - neg) * y + neg * (1d - y);
     }
 
     /**
@@ -635,7 +688,7 @@ public class BlackScholes {
      * @see "http://www.itl.nist.gov/div898/handbook/eda/section3/eda3661.htm"
      */
     protected static double phi(double x) {
-        return Math.exp((-(x * x)) / 2) / Math.sqrt(2 * Math.PI);
+        return Math.exp((-(x * x)) / 2) / SQRT_2PI;
     }
 
     /**
@@ -703,19 +756,19 @@ public class BlackScholes {
             data.setBid(price);
         }
 
+        double[] greeks = new double[Greeks.LENGTH];
+        Greeks.calculate(isCall, asset, strike, time, interestRate, iv, greeks, 0);
+
         if (!data.contains(OptionData.DELTA_PER_OPTION)) {
-            double delta = delta(isCall, asset, strike, time, interestRate, iv);
-            data.setValue(OptionData.DELTA_PER_OPTION, delta);
+            data.setValue(OptionData.DELTA_PER_OPTION, greeks[Greeks.DELTA]);
         }
 
         if (!data.contains(OptionData.VEGA_PER_OPTION)) {
-            double vega = vega(isCall, asset, strike, time, interestRate, iv);
-            data.setValue(OptionData.VEGA_PER_OPTION, vega);
+            data.setValue(OptionData.VEGA_PER_OPTION, greeks[Greeks.VEGA]);
         }
 
         if (!data.contains(OptionData.GAMMA_PER_OPTION)) {
-            double gamma = gamma(isCall, asset, strike, time, interestRate, iv);
-            data.setValue(OptionData.GAMMA_PER_OPTION, gamma);
+            data.setValue(OptionData.GAMMA_PER_OPTION, greeks[Greeks.GAMMA]);
         }
 
         double theta = Double.NaN;
@@ -727,16 +780,33 @@ public class BlackScholes {
 
         // Theta is always negative!
         if (Double.isNaN(existingTheta) || existingTheta > 0) {
-            theta = theta(isCall, asset, strike, time, interestRate, iv);
+            theta = greeks[Greeks.THETA];
         }
         data.setValue(OptionData.THETA_PER_OPTION_PER_DAY, theta);
 
+        boolean missingVanna = !data.contains(OptionData.VANNA);
+        boolean missingVomma = !data.contains(OptionData.VOMMA);
+        if (missingVanna || missingVomma) {
+
+            if (!data.contains(OptionData.D1)) {
+                data.setD1(greeks[Greeks.D1]);
+            }
+
+            // A D1 or vega supplied with the data is used as is, like vanna(OptionData...) and vomma(OptionData...) do.
+            double d1 = data.getD1();
+            double vega = data.getValue(OptionData.VEGA_PER_OPTION);
+            boolean fused = d1 == greeks[Greeks.D1];
+
+            if (missingVanna) {
+                double vanna = fused ? greeks[Greeks.VANNA] : vanna(d1, time, iv);
+                data.setValue(OptionData.VANNA, vanna);
+            }
+
+            if (missingVomma) {
+                double vomma = fused && vega == greeks[Greeks.VEGA] ? greeks[Greeks.VOMMA] : vomma(d1, time, iv, vega);
+                data.setValue(OptionData.VOMMA, vomma);
+            }
 
-        if (!data.contains(OptionData.VANNA)) {
-            vanna(data, interestRate, true);
-        }
-        if (!data.contains(OptionData.VOMMA)) {
-            vomma(data, interestRate, true);
         }
 
         if (theta > 0) {
@@ -765,10 +835,14 @@ public class BlackScholes {
         boolean isCall = data.isCall();
 
         double iv = impliedVolatility(isCall, asset, strike, dte, interestRate, price);
-        double delta = delta(isCall, asset, strike, dte, interestRate, iv);
-        double vega = vega(isCall, asset, strike, dte, interestRate, iv);
-        double gamma = gamma(isCall, asset, strike, dte, interestRate, iv);
-        double theta = theta(isCall, asset, strike, dte, interestRate, iv);
+
+        double[] greeks = new double[Greeks.LENGTH];
+        Greeks.calculate(isCall, asset, strike, dte, interestRate, iv, greeks, 0);
+
+        double delta = greeks[Greeks.DELTA];
+        double vega = greeks[Greeks.VEGA];
+        double gamma = greeks[Greeks.GAMMA];
+        double theta = greeks[Greeks.THETA];
 
 
         data.setValue(OptionData.ORIGINAL_VEGA_PER_OPTION, vega);
@@ -806,22 +880,11 @@ public class BlackScholes {
 
     /**
      * Convert the DTE expressed in days to time expressed in years. This is needed for Black-Scholes model.
+     *
+     * @see TimeToExpiry
      */
     public static double convertDteToYears(double dte) {
-
-        if (dteToYearsMap.containsKey(dte)) {
-            return dteToYearsMap.get(dte);
-        }
-
-        // If we are more than 3 years out then it is a distinct possibility that DTE was expressed as calendars days not a fraction of a year!
-        // Besides if you are trading options with less than 3 DTE then the standard pricing models probably won't work.
-        // If you are trading options with more then 3 years to expiration then you are on your own.
-        if (dte % 1.0 > 0) {
-            System.err.println("WARNING: perhaps DTE is in years: " + dte);
-        }
-        double T = dte / TRADING_DAYS_IN_YEAR;
-        dteToYearsMap.put(dte, T);
-        return T;
+        return TimeToExpiry.toYears(dte);
     }
 
     public static double[] getResampledOptionPrices(OptionData data, double[] resampledStockPrices, double[] resampledIVs, double dte, double r) {
@@ -844,9 +907,9 @@ public class BlackScholes {
 
             double S = resampledStockPrices[i];
 
-            if (resampledIVs[i] > 1) {
-                System.err.println("Warning: resetting IV to 1 rather than: " + resampledIVs[i]);
-                resampledIVs[i] = 1d;
+            if (resampledIVs[i] > MAX_IV) {
+                System.err.println("Warning: resetting IV to " + MAX_IV + " rather than: " + resampledIVs[i]);
+                resampledIVs[i] = MAX_IV;
             }
 
             double resampledOptionPrice = optionPrice(call, S, X, dte, r, resampledIVs[i]);
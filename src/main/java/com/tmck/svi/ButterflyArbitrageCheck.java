@@ -0,0 +1,222 @@
+package com.tmck.svi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.tmck.svi.valueobjs.OptionData;
+
+
+/**
+ * Checks calibrated SVI slices for butterfly arbitrage with the density function of Gatheral and Jacquier:
+ * <pre>
+ *     g(k) = (1 - k * w'(k) / (2 * w(k)))^2 - w'(k)^2 / 4 * (1 / w(k) + 1 / 4) + w''(k) / 2
+ * </pre>
+ * A slice is free of butterfly arbitrage where g is non-negative since the risk neutral density is a positive
+ * multiple of g. Unlike {@link OptionData#hasButterflyArbitrage(OptionData[])}, which compares every triple of
+ * quoted mids, this checks the fitted slice itself and takes O(grid) per slice. w, w' and w'' are evaluated in
+ * closed form over the whole log-strike grid in loops of plain arithmetic which the JIT vectorizes.
+ * <p>
+ * A check reuses its buffers so it doesn't allocate unless it finds arbitrage. It is not safe to share between
+ * threads.
+ *
+ * @author GuestMeNot
+ * @see "Arbitrage-free SVI volatility surfaces by Gatheral and Jacquier - section 2.2"
+ */
+public class ButterflyArbitrageCheck {
+
+    private static final Report NO_ARBITRAGE = new Report(Double.NaN, new double[0], true);
+    private static final Report INVALID = new Report(Double.NaN, new double[0], false);
+
+    private final double[] ks;
+    private final double[] w;
+    private final double[] dw;
+    private final double[] d2w;
+
+    public ButterflyArbitrageCheck() {
+        this(SurfaceGrid.DEFAULT_MIN_LOG_STRIKE, SurfaceGrid.DEFAULT_MAX_LOG_STRIKE, SurfaceGrid.DEFAULT_LOG_STRIKES);
+    }
+
+    public ButterflyArbitrageCheck(double minLogStrike, double maxLogStrike, int logStrikes) {
+
+        if (logStrikes < 2 || !(maxLogStrike > minLogStrike)) {
+            throw new IllegalArgumentException("The grid needs at least 2 log-strikes over a positive range: ["
+                    + minLogStrike + ", " + maxLogStrike + "] x " + logStrikes);
+        }
+
+        double dk = (maxLogStrike - minLogStrike) / (logStrikes - 1);
+        ks = new double[logStrikes];
+        for (int i = 0; i < logStrikes; i++) {
+            ks[i] = minLogStrike + i * dk;
+        }
+
+        w = new double[logStrikes];
+        dw = new double[logStrikes];
+        d2w = new double[logStrikes];
+
+    }
+
+    public Report check(SviSlice slice) {
+        return check(slice.getA(), slice.getB(), slice.getP(), slice.getM(), slice.getSigma(), slice.getT());
+    }
+
+    /**
+     * @param a - per year like the values in {@link OptionData}.
+     * @param b - per year like the values in {@link OptionData}.
+     * @param t - the time to expiry in years.
+     */
+    public Report check(double a, double b, double p, double m, double sigma, double t) {
+
+        // We need to convert to Raw parameters: so we multiply a & b by t.
+        double aT = a * t;
+        double bT = b * t;
+
+        if (!SVI.parametersWithinTolerance(aT, bT, p, m, sigma, t)) {
+            return INVALID;
+        }
+
+        int n = ks.length;
+        double sigmasigma = sigma * sigma;
+
+        for (int i = 0; i < n; i++) {
+            double km = ks[i] - m;
+            double sqrt = Math.sqrt(km * km + sigmasigma);
+            w[i] = aT + bT * (p * km + sqrt);
+            dw[i] = bT * (p + km / sqrt);
+            d2w[i] = bT * sigmasigma / (sqrt * sqrt * sqrt);
+        }
+
+        // g is written over w once w is no longer needed.
+        double minG = Double.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            double wi = w[i];
+            double dwi = dw[i];
+            double x = 1 - ks[i] * dwi / (2 * wi);
+            double g = x * x - dwi * dwi / 4 * (1 / wi + .25d) + d2w[i] / 2;
+            w[i] = g;
+            minG = Math.min(minG, g);
+        }
+
+        if (minG >= 0) {
+            return NO_ARBITRAGE;
+        }
+
+        return new Report(minG, getNegativeRegions(), true);
+
+    }
+
+    /**
+     * @return the first and last log-strike of each run of grid points where g is negative or NaN.
+     */
+    private double[] getNegativeRegions() {
+
+        List<Double> regions = new ArrayList<>();
+
+        int start = -1;
+        for (int i = 0; i <= ks.length; i++) {
+            boolean negative = i < ks.length && !(w[i] >= 0);
+            if (negative && start < 0) {
+                start = i;
+            } else if (!negative && start >= 0) {
+                regions.add(ks[start]);
+                regions.add(ks[i - 1]);
+                start = -1;
+            }
+        }
+
+        double[] values = new double[regions.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = regions.get(i);
+        }
+        return values;
+
+    }
+
+    /**
+     * Check every calibrated expiry of a chain.
+     *
+     * @param data - the options of every expiry of one root. Expiries without SVI parameters are skipped.
+     * @return the report of each expiry by DTE.
+     */
+    public Map<Double, Report> check(OptionData[] data) {
+
+        Map<Double, Report> reports = new LinkedHashMap<>();
+
+        List<Double> dtes = OptionData.getDtes(data);
+        for (double dte : dtes) {
+
+            OptionData ref = dtes.size() == 1 ? data[0] : OptionData.getOptionsByDte(data, dte)[0];
+            if (!ref.contains(OptionData.SVI_A)) {
+                continue;
+            }
+
+            reports.put(dte, check(ref.getValue(OptionData.SVI_A), ref.getValue(OptionData.SVI_B),
+                    ref.getValue(OptionData.SVI_P), ref.getValue(OptionData.SVI_M),
+                    ref.getValue(OptionData.SVI_SIGMA), BlackScholes.getT(ref)));
+        }
+
+        return reports;
+
+    }
+
+    public double getMinLogStrike() {
+        return ks[0];
+    }
+
+    public double getMaxLogStrike() {
+        return ks[ks.length - 1];
+    }
+
+    public int getNumLogStrikes() {
+        return ks.length;
+    }
+
+    public static final class Report {
+
+        private final double minG;
+        private final double[] negativeRegions;
+        private final boolean valid;
+
+        private Report(double minG, double[] negativeRegions, boolean valid) {
+            this.minG = minG;
+            this.negativeRegions = negativeRegions;
+            this.valid = valid;
+        }
+
+        /**
+         * @return false if the slice can't be evaluated since its parameters are out of tolerance.
+         */
+        public boolean isValid() {
+            return valid;
+        }
+
+        public boolean hasArbitrage() {
+            return negativeRegions.length > 0;
+        }
+
+        /**
+         * @return the smallest g on the grid or NaN if there isn't any arbitrage.
+         */
+        public double getMinG() {
+            return minG;
+        }
+
+        /**
+         * @return the first and last log-strike of each region where g is negative, i.e. {from1, to1, from2, to2...}.
+         */
+        public double[] getNegativeRegions() {
+            return negativeRegions.clone();
+        }
+
+        @Override
+        public String toString() {
+            if (!valid) {
+                return "Report{invalid parameters}";
+            }
+            return "Report{minG=" + minG + ", negativeRegions=" + Arrays.toString(negativeRegions) + "}";
+        }
+    }
+
+}
@@ -0,0 +1,204 @@
+package com.tmck.svi;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * In-process counters and latency histograms of SVI calibration stages by {@link CalibrationPlan.Kind}.
+ * <p>
+ * Every {@link SVI} records into {@link #global()}. Recording is a few uncontended atomic adds so it is always on.
+ * Latencies are counted in power of 2 buckets of microseconds so percentiles are accurate to within a factor of 2,
+ * which is enough to tell a slow slice from a normal one.
+ *
+ * @author GuestMeNot
+ * @see CalibrationStageEvent for the same data per stage in Flight Recorder.
+ */
+public class CalibrationMetrics {
+
+    /**
+     * Bucket i counts latencies from 2^(i-1) up to 2^i microseconds, the last bucket counts everything longer.
+     */
+    public static final int BUCKETS = 32;
+
+    private static final CalibrationMetrics global = new CalibrationMetrics();
+
+    private final Map<CalibrationPlan.Kind, Recorder> recorders = new EnumMap<>(CalibrationPlan.Kind.class);
+
+    public CalibrationMetrics() {
+        for (CalibrationPlan.Kind kind : CalibrationPlan.Kind.values()) {
+            recorders.put(kind, new Recorder());
+        }
+    }
+
+    public static CalibrationMetrics global() {
+        return global;
+    }
+
+    public void record(CalibrationPlan.Kind kind, long evaluations, long nanos) {
+        recorders.get(kind).record(evaluations, nanos);
+    }
+
+    /**
+     * @return a snapshot of the stages of the kind which doesn't change as more stages are recorded.
+     */
+    public StageStats getStageStats(CalibrationPlan.Kind kind) {
+        return recorders.get(kind).snapshot(kind);
+    }
+
+    /**
+     * @return a snapshot of every kind of stage.
+     */
+    public Map<CalibrationPlan.Kind, StageStats> getStageStats() {
+
+        Map<CalibrationPlan.Kind, StageStats> stats = new EnumMap<>(CalibrationPlan.Kind.class);
+        for (CalibrationPlan.Kind kind : CalibrationPlan.Kind.values()) {
+            stats.put(kind, getStageStats(kind));
+        }
+        return stats;
+
+    }
+
+    /**
+     * Stages recorded while resetting may be partly counted.
+     */
+    public void reset() {
+        for (Recorder recorder : recorders.values()) {
+            recorder.reset();
+        }
+    }
+
+    static int getBucket(long nanos) {
+        long micros = nanos / 1000;
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    private static final class Recorder {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder evaluations = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+        void record(long evaluations, long nanos) {
+            count.increment();
+            this.evaluations.add(evaluations);
+            this.nanos.add(nanos);
+            maxNanos.accumulate(nanos);
+            histogram.incrementAndGet(getBucket(nanos));
+        }
+
+        StageStats snapshot(CalibrationPlan.Kind kind) {
+
+            long[] buckets = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = histogram.get(i);
+            }
+
+            return new StageStats(kind, count.sum(), evaluations.sum(), nanos.sum(), maxNanos.get(), buckets);
+
+        }
+
+        void reset() {
+            count.reset();
+            evaluations.reset();
+            nanos.reset();
+            maxNanos.reset();
+            for (int i = 0; i < BUCKETS; i++) {
+                histogram.set(i, 0);
+            }
+        }
+    }
+
+    public static final class StageStats {
+
+        private final CalibrationPlan.Kind kind;
+        private final long count;
+        private final long evaluations;
+        private final long nanos;
+        private final long maxNanos;
+        private final long[] histogram;
+
+        private StageStats(CalibrationPlan.Kind kind, long count, long evaluations, long nanos, long maxNanos, long[] histogram) {
+            this.kind = kind;
+            this.count = count;
+            this.evaluations = evaluations;
+            this.nanos = nanos;
+            this.maxNanos = maxNanos;
+            this.histogram = histogram;
+        }
+
+        public CalibrationPlan.Kind getKind() {
+            return kind;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getEvaluations() {
+            return evaluations;
+        }
+
+        public long getTotalNanos() {
+            return nanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        public double getMeanNanos() {
+            return count == 0 ? Double.NaN : (double) nanos / count;
+        }
+
+        /**
+         * @param quantile - e.g. .99
+         * @return the upper bound of the bucket holding the quantile, no more than the maximum, or NaN if nothing
+         * was recorded.
+         */
+        public double getPercentileNanos(double quantile) {
+
+            long total = 0;
+            for (long bucket : histogram) {
+                total += bucket;
+            }
+
+            if (total == 0) {
+                return Double.NaN;
+            }
+
+            long rank = (long) Math.ceil(quantile * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS - 1; i++) {
+                seen += histogram[i];
+                if (seen >= Math.max(1, rank)) {
+                    return Math.min((1L << i) * 1000d, maxNanos);
+                }
+            }
+
+            return maxNanos;
+
+        }
+
+        /**
+         * @return the count of each bucket.
+         * @see CalibrationMetrics#BUCKETS
+         */
+        public long[] getHistogram() {
+            return histogram.clone();
+        }
+
+        @Override
+        public String toString() {
+            return kind + " stages: " + count + " evaluations: " + evaluations + " mean ms: " + getMeanNanos() / 1e6
+                    + " p50 ms: " + getPercentileNanos(.5) / 1e6 + " p99 ms: " + getPercentileNanos(.99) / 1e6
+                    + " max ms: " + maxNanos / 1e6;
+        }
+    }
+
+}
@@ -0,0 +1,337 @@
+package com.tmck.svi;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * The ordered stages of an SVI calibration.
+ * <p>
+ * Each stage minimizes one parameterisation with some parameters held fixed. A parameter takes its value either
+ * from the heuristic starting point of the slice or from the best fit of the earlier stages. A stage may end the
+ * calibration early once the Sum of Squared Residuals per strike is within its threshold so a cheap plan can be run
+ * intraday and the {@link #full()} plan at the end of the day.
+ * <p>
+ * When the slice has cached parameters the optional warm start stage is run first and the plan ends there if
+ * it exits.
+ *
+ * @author GuestMeNot
+ * @see SVI#setCalibrationPlan(CalibrationPlan)
+ */
+public class CalibrationPlan {
+
+    public static final int DEFAULT_MAX_EVALUATIONS = 2000;
+
+    /**
+     * The SSR threshold of a stage that never ends the calibration early.
+     */
+    public static final double NO_EARLY_EXIT = Double.NaN;
+
+    public enum Kind {
+
+        /**
+         * The quasi parameterisation minimized by the {@link CalibrationStrategy}.
+         */
+        QUASI,
+
+        /**
+         * The raw parameterisation minimized by the {@link CalibrationStrategy}.
+         */
+        RAW,
+
+        /**
+         * The JW parameterisation started from the best raw parameters. The parameter specifications are ignored.
+         */
+        JW,
+
+        /**
+         * Search m and sigma solving a, c and d exactly. Only the m and sigma specifications are used and
+         * starting from {@link Source#START} searches from the best point of a grid.
+         *
+         * @see QuasiExplicitSVI
+         */
+        QUASI_EXPLICIT
+    }
+
+    public enum Source {
+
+        /**
+         * The heuristic starting point of the slice.
+         */
+        START,
+
+        /**
+         * The best parameters of the earlier stages or the cached parameters when warm starting.
+         */
+        BEST
+    }
+
+    /**
+     * How a stage treats one of a, b, p, m and sigma.
+     */
+    public static final class Param {
+
+        public static final Param FIXED_START = new Param(false, Source.START, 1);
+        public static final Param FIXED_BEST = new Param(false, Source.BEST, 1);
+        public static final Param FREE_START = new Param(true, Source.START, 1);
+        public static final Param FREE_BEST = new Param(true, Source.BEST, 1);
+
+        private final boolean free;
+        private final Source source;
+        private final double scale;
+
+        /**
+         * @param free   - true to minimize over the parameter, false to hold it at its value.
+         * @param source - where the value, or the starting value if free, comes from.
+         * @param scale  - multiplies the value from the source.
+         */
+        public Param(boolean free, Source source, double scale) {
+            if (source == null) {
+                throw new IllegalArgumentException("source must not be null");
+            }
+            this.free = free;
+            this.source = source;
+            this.scale = scale;
+        }
+
+        public Param scaled(double scale) {
+            return new Param(free, source, scale);
+        }
+
+        public boolean isFree() {
+            return free;
+        }
+
+        public Source getSource() {
+            return source;
+        }
+
+        public double getScale() {
+            return scale;
+        }
+
+        double resolve(double start, double best) {
+            return scale * (source == Source.START ? start : best);
+        }
+
+        @Override
+        public String toString() {
+            return (free ? "free " : "fixed ") + source + (scale == 1 ? "" : "*" + scale);
+        }
+    }
+
+    public static final class Stage {
+
+        private final Kind kind;
+        private final Param[] params;
+        private final boolean calcSSR;
+        private final int maxEvaluations;
+        private final double ssrExitPerStrike;
+
+        /**
+         * @param calcSSR          - true to minimize the Sum of Squared Residuals, false the standard error of the residuals.
+         * @param ssrExitPerStrike - end the calibration after this stage if the SSR per strike is within this or {@link #NO_EARLY_EXIT}.
+         */
+        public Stage(Kind kind, Param a, Param b, Param p, Param m, Param sigma,
+                     boolean calcSSR, int maxEvaluations, double ssrExitPerStrike) {
+
+            if (kind == null) {
+                throw new IllegalArgumentException("kind must not be null");
+            }
+
+            if (maxEvaluations < 1) {
+                throw new IllegalArgumentException("maxEvaluations must be positive: " + maxEvaluations);
+            }
+
+            this.kind = kind;
+            this.params = new Param[]{a, b, p, m, sigma};
+            this.calcSSR = calcSSR;
+            this.maxEvaluations = maxEvaluations;
+            this.ssrExitPerStrike = ssrExitPerStrike;
+
+            if (kind != Kind.JW) {
+                for (Param param : params) {
+                    if (param == null) {
+                        throw new IllegalArgumentException("Every parameter of a " + kind + " stage must be specified");
+                    }
+                }
+            }
+
+        }
+
+        public static Stage jw(int maxEvaluations, double ssrExitPerStrike) {
+            return new Stage(Kind.JW, Param.FIXED_BEST, Param.FIXED_BEST, Param.FIXED_BEST, Param.FIXED_BEST, Param.FIXED_BEST,
+                    true, maxEvaluations, ssrExitPerStrike);
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * @param idx - 0 to 4 for a, b, p, m and sigma.
+         */
+        public Param getParam(int idx) {
+            return params[idx];
+        }
+
+        public boolean isCalcSSR() {
+            return calcSSR;
+        }
+
+        public int getMaxEvaluations() {
+            return maxEvaluations;
+        }
+
+        public double getSsrExitPerStrike() {
+            return ssrExitPerStrike;
+        }
+
+        /**
+         * @param strikes - the number of strikes in the slice.
+         */
+        public boolean isExit(double ssr, int strikes) {
+            return !Double.isNaN(ssrExitPerStrike) && ssr <= ssrExitPerStrike * strikes;
+        }
+
+        @Override
+        public String toString() {
+            return kind + (kind == Kind.JW ? "" : " " + Arrays.toString(params)) + (calcSSR ? " SSR" : " StdErr")
+                    + " maxEvaluations: " + maxEvaluations + " exit: " + ssrExitPerStrike;
+        }
+    }
+
+    /**
+     * What running a stage cost.
+     */
+    public static final class StageResult {
+
+        private final Stage stage;
+        private final long evaluations;
+        private final long nanos;
+        private final double ssr;
+
+        public StageResult(Stage stage, long evaluations, long nanos, double ssr) {
+            this.stage = stage;
+            this.evaluations = evaluations;
+            this.nanos = nanos;
+            this.ssr = ssr;
+        }
+
+        public Stage getStage() {
+            return stage;
+        }
+
+        public long getEvaluations() {
+            return evaluations;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * @return the best SSR after the stage.
+         */
+        public double getSSR() {
+            return ssr;
+        }
+
+        @Override
+        public String toString() {
+            return stage.getKind() + " evaluations: " + evaluations + " ms: " + (nanos / 1e6) + " SSR: " + ssr;
+        }
+    }
+
+    private final Stage warmStart;
+    private final List<Stage> stages;
+
+    /**
+     * @param warmStart - run first when the slice has cached parameters or null to ignore cached parameters.
+     */
+    public CalibrationPlan(Stage warmStart, List<Stage> stages) {
+
+        if (stages == null || stages.isEmpty()) {
+            throw new IllegalArgumentException("A plan needs at least one stage");
+        }
+
+        this.warmStart = warmStart;
+        this.stages = Collections.unmodifiableList(Arrays.asList(stages.toArray(new Stage[0])));
+
+    }
+
+    public Stage getWarmStartStage() {
+        return warmStart;
+    }
+
+    public List<Stage> getStages() {
+        return stages;
+    }
+
+    /**
+     * Polish cached parameters with the raw parameterisation which is nearly always enough.
+     */
+    private static Stage rawWarmStart(int maxEvaluations) {
+        return new Stage(Kind.RAW, Param.FREE_BEST, Param.FREE_BEST, Param.FREE_BEST, Param.FREE_BEST, Param.FREE_BEST,
+                true, maxEvaluations, SVI.SSR_TOLERANCE_PER_STRIKE);
+    }
+
+    /**
+     * Every quasi, raw and JW stage without exiting early.
+     */
+    public static CalibrationPlan full() {
+
+        int max = DEFAULT_MAX_EVALUATIONS;
+        double exit = NO_EARLY_EXIT;
+
+        return new CalibrationPlan(rawWarmStart(max), Arrays.asList(
+                // Find the skew with the level and curvature held at their starting values.
+                new Stage(Kind.QUASI, Param.FIXED_START, Param.FIXED_START, Param.FREE_START, Param.FIXED_START, Param.FIXED_START, false, max, exit),
+                new Stage(Kind.QUASI, Param.FREE_START, Param.FREE_START, Param.FREE_BEST, Param.FIXED_START, Param.FIXED_START, true, max, exit),
+                new Stage(Kind.QUASI, Param.FIXED_BEST, Param.FIXED_BEST, Param.FIXED_BEST, Param.FREE_START.scaled(2), Param.FREE_START, true, max, exit),
+                new Stage(Kind.QUASI, Param.FREE_BEST, Param.FIXED_BEST, Param.FREE_BEST, Param.FIXED_START, Param.FIXED_START, true, max, exit),
+                // There aren't any parameters that we hold constant.
+                new Stage(Kind.RAW, Param.FREE_BEST, Param.FREE_BEST, Param.FREE_BEST, Param.FREE_BEST, Param.FREE_BEST, true, max, exit),
+                Stage.jw(max, exit)));
+
+    }
+
+    /**
+     * Fit the level and skew then the whole slice, stopping as soon as the fit is within tolerance.
+     */
+    public static CalibrationPlan intraday() {
+
+        double exit = SVI.SSR_TOLERANCE_PER_STRIKE;
+
+        return new CalibrationPlan(rawWarmStart(500), Arrays.asList(
+                new Stage(Kind.QUASI, Param.FREE_START, Param.FREE_START, Param.FREE_START, Param.FIXED_START, Param.FIXED_START, true, 500, exit),
+                new Stage(Kind.RAW, Param.FREE_BEST, Param.FREE_BEST, Param.FREE_BEST, Param.FREE_BEST, Param.FREE_BEST, true, 1000, exit)));
+
+    }
+
+    /**
+     * @see QuasiExplicitSVI
+     */
+    public static CalibrationPlan quasiExplicit() {
+
+        // Only m and sigma are searched so they are all that is needed to warm start.
+        Stage warmStart = new Stage(Kind.QUASI_EXPLICIT, Param.FIXED_BEST, Param.FIXED_BEST, Param.FIXED_BEST, Param.FREE_BEST, Param.FREE_BEST,
+                true, QuasiExplicitSVI.MAX_EVALUATIONS, SVI.SSR_TOLERANCE_PER_STRIKE);
+
+        return new CalibrationPlan(warmStart, Collections.singletonList(
+                new Stage(Kind.QUASI_EXPLICIT, Param.FIXED_START, Param.FIXED_START, Param.FIXED_START, Param.FREE_START, Param.FREE_START,
+                        true, QuasiExplicitSVI.MAX_EVALUATIONS, NO_EARLY_EXIT)));
+
+    }
+
+    public static CalibrationPlan forMode(SVI.CalibrationMode mode) {
+        return mode == SVI.CalibrationMode.QUASI_EXPLICIT ? quasiExplicit() : full();
+    }
+
+    @Override
+    public String toString() {
+        return "warm start: " + warmStart + " stages: " + stages;
+    }
+
+}
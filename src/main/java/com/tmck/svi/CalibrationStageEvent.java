@@ -0,0 +1,54 @@
+package com.tmck.svi;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+
+/**
+ * A Flight Recorder event for each stage of an SVI calibration. The event's duration is the wall time of the stage.
+ * <p>
+ * Record with e.g. <code>-XX:StartFlightRecording:filename=svi.jfr</code> and read with
+ * <code>jfr print --events com.tmck.svi.CalibrationStage svi.jfr</code>. When recording is off the event costs a
+ * check of {@link #isEnabled()}.
+ *
+ * @author GuestMeNot
+ * @see CalibrationMetrics for the same data aggregated in process.
+ */
+@Name("com.tmck.svi.CalibrationStage")
+@Label("SVI Calibration Stage")
+@Category({"SVI", "Calibration"})
+@Description("One stage of the calibration of an SVI slice")
+@StackTrace(false)
+public class CalibrationStageEvent extends Event {
+
+    @Label("Root")
+    String root;
+
+    @Label("DTE")
+    double dte;
+
+    @Label("Stage")
+    String stage;
+
+    @Label("Stage Index")
+    @Description("The position of the stage in its plan, -1 for the warm start")
+    int stageIndex;
+
+    @Label("Evaluations")
+    long evaluations;
+
+    @Label("SSR")
+    @Description("The best sum of squared IV residuals after the stage")
+    double ssr;
+
+    @Label("Strikes")
+    int strikes;
+
+    @Label("Deadline Exceeded")
+    boolean deadlineExceeded;
+
+}
@@ -0,0 +1,34 @@
+package com.tmck.svi;
+
+import com.tmck.svi.SVI.MinimizerSVI;
+
+
+/**
+ * Minimizes one stage of an SVI calibration.
+ * <p>
+ * The minimizer retains the best point it has evaluated so a strategy only needs to drive the search. Strategies
+ * must be safe to share between threads since the expiries of a chain may be calibrated concurrently.
+ *
+ * @author GuestMeNot
+ * @see SVI#setCalibrationStrategy(CalibrationStrategy)
+ */
+public interface CalibrationStrategy {
+
+    /**
+     * The derivative free search the SVI has always used.
+     */
+    CalibrationStrategy POWELL = new PowellCalibrationStrategy();
+
+    /**
+     * Least squares with the analytic Jacobian of the model IVs.
+     */
+    CalibrationStrategy LEVENBERG_MARQUARDT = new LevenbergMarquardtCalibrationStrategy();
+
+    /**
+     * @param function       - the objective which retains the best point evaluated.
+     * @param startParams    - the starting point of the free parameters.
+     * @param maxEvaluations - the evaluation budget.
+     */
+    void minimize(MinimizerSVI function, double[] startParams, int maxEvaluations);
+
+}
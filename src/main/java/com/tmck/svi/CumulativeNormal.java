@@ -0,0 +1,44 @@
+package com.tmck.svi;
+
+
+/**
+ * The cumulative normal distribution function used by {@link BlackScholes}.
+ * <p>
+ * The implementations trade accuracy for speed. The error bounds are the largest absolute error against the
+ * double precision erfc of Commons Math sampled every 1e-4 over [-10, 10], where the measured maxima are 7.45e-8,
+ * 5.1e-16 and 2.9e-13. CumulativeNormalBenchmark in the test sources measures them and the speed on a given machine.
+ * Implementations must be safe to share between threads.
+ *
+ * @author GuestMeNot
+ * @see BlackScholes#setCumulativeNormal(CumulativeNormal)
+ */
+public interface CumulativeNormal {
+
+    /**
+     * The 5 term polynomial of Abramowitz and Stegun 26.2.17 that BlackScholes has always used. Absolute error under
+     * 7.5e-8, 1 exponential per call.
+     */
+    CumulativeNormal ABRAMOWITZ_STEGUN = new AbramowitzStegunCumulativeNormal();
+
+    /**
+     * The double precision rational approximation of Hart as given by West. Absolute error under 1e-15, 1 exponential
+     * per call.
+     */
+    CumulativeNormal WEST = new WestCumulativeNormal();
+
+    /**
+     * A table with a Taylor polynomial between its points. Absolute error under 1e-12 and no exponential.
+     */
+    CumulativeNormal TABLE = new TableCumulativeNormal();
+
+    /**
+     * @return the probability that a standard normal variable is at most x.
+     */
+    double cdf(double x);
+
+    /**
+     * @return the documented bound of the absolute error of {@link #cdf(double)}.
+     */
+    double getMaxAbsoluteError();
+
+}
@@ -0,0 +1,136 @@
+package com.tmck.svi;
+
+
+/**
+ * Calculates the price and every Greek of an option from one evaluation of d1, d2, the discount factor, phi(d1)
+ * and the 2 CNDs the option needs.
+ * <p>
+ * The results are written to a caller provided buffer at the offsets below so pricing a chain allocates nothing.
+ * Each value follows the conventions of the matching {@link BlackScholes} method: vega is per 1% of IV, theta is per
+ * day and put theta within .001 of zero is zeroed, a price within .01 of zero is zeroed and vomma uses vega per 1%.
+ * Rho is analytic per 1.00 of r.
+ *
+ * @author GuestMeNot
+ * @see "Wikipedia Greeks (Finance)"
+ */
+public final class Greeks {
+
+    public static final int PRICE = 0;
+    public static final int D1 = 1;
+    public static final int D2 = 2;
+    public static final int DELTA = 3;
+    public static final int GAMMA = 4;
+    public static final int VEGA = 5;
+    public static final int THETA = 6;
+    public static final int RHO = 7;
+    public static final int VANNA = 8;
+    public static final int VOMMA = 9;
+
+    /**
+     * The number of values written for each option.
+     */
+    public static final int LENGTH = 10;
+
+    private Greeks() {
+    }
+
+    /**
+     * @param S      - the current price of the stock
+     * @param X      - the strike price of the option
+     * @param dte    - the option's days to expiration.
+     * @param r      - the risk free rate of return as a decimal.
+     * @param v      - the implied volatility expressed as a decimal.
+     * @param out    - receives {@link #LENGTH} values starting at offset.
+     * @param offset - where to write the first value.
+     * @throws IllegalStateException if the inputs are out of range like {@link BlackScholes#d1(double, double, double, double, double)}.
+     */
+    public static void calculate(boolean isCallOption, double S, double X, double dte, double r, double v, double[] out, int offset) {
+
+        double d1 = BlackScholes.d1(S, X, dte, r, v);
+
+        double T = BlackScholes.convertDteToYears(dte);
+        double sqrtT = Math.sqrt(T);
+        double d2 = d1 - v * sqrtT;
+
+        double discount = Math.exp(-r * T);
+        double ket = X * discount;
+        double phiD1 = BlackScholes.phi(d1);
+
+        double vega = S * phiD1 * sqrtT / 100;
+        double term1 = (-S * phiD1 * v) / (2 * sqrtT);
+
+        double price;
+        double delta;
+        double theta;
+        double rho;
+        if (isCallOption) {
+
+            double cndD1 = BlackScholes.CND(d1);
+            double cndD2 = BlackScholes.CND(d2);
+
+            price = S * cndD1 - ket * cndD2;
+            delta = cndD1;
+            theta = (term1 - r * X * discount * cndD2) / BlackScholes.TRADING_DAYS_IN_YEAR;
+            rho = ket * T * cndD2;
+
+        } else {
+
+            double cndD1 = BlackScholes.CND(-d1);
+            double cndD2 = BlackScholes.CND(-d2);
+
+            price = ket * cndD2 - S * cndD1;
+            delta = -1.0 * cndD1;
+            theta = (term1 + r * X * discount * cndD2) / BlackScholes.TRADING_DAYS_IN_YEAR;
+            if (Math.abs(theta) < .001d) {
+                theta = 0d;
+            }
+            rho = -ket * T * cndD2;
+
+        }
+
+        // There is some rounding error that allows a price to be less than zero!
+        // So we set the option price to zero if we are within this rounding error!
+        if (Math.abs(price) < .01d) {
+            price = 0d;
+        }
+
+        if (Double.isNaN(price) || price < 0) {
+            System.err.println("Error: Option Price is NaN or Negative: call: " + isCallOption + " S: " + S + " X: " + X + " T: " + T + " r: " + r + " iv: " + v);
+        }
+
+        out[offset + PRICE] = price;
+        out[offset + D1] = d1;
+        out[offset + D2] = d2;
+        out[offset + DELTA] = delta;
+        out[offset + GAMMA] = phiD1 / (S * v * sqrtT);
+        out[offset + VEGA] = vega;
+        out[offset + THETA] = theta;
+        out[offset + RHO] = rho;
+        out[offset + VANNA] = -phiD1 * d2 / v;
+        out[offset + VOMMA] = vega * d1 * d2 / v;
+
+    }
+
+    /**
+     * @param out - receives {@link #LENGTH} values per option, option i starting at i * {@link #LENGTH}.
+     * @throws IllegalArgumentException if the arrays don't have the same length or out is too short.
+     * @see #calculate(boolean, double, double, double, double, double, double[], int)
+     */
+    public static void calculate(boolean[] isCallOption, double[] S, double[] X, double[] dte, double r, double[] v, double[] out) {
+
+        int n = isCallOption.length;
+        if (S.length != n || X.length != n || dte.length != n || v.length != n) {
+            throw new IllegalArgumentException("All the inputs must have the same length: " + n);
+        }
+
+        if (out.length < n * LENGTH) {
+            throw new IllegalArgumentException("out.length(" + out.length + ") < " + n * LENGTH);
+        }
+
+        for (int i = 0; i < n; i++) {
+            calculate(isCallOption[i], S[i], X[i], dte[i], r, v[i], out, i * LENGTH);
+        }
+
+    }
+
+}
@@ -0,0 +1,229 @@
+package com.tmck.svi;
+
+
+/**
+ * Solves Black-Scholes for the implied volatility to near machine precision in a few iterations.
+ * <p>
+ * The price is converted to the normalized price of the out of the money option, b(x, s) with x = ln(F/K) &lt;= 0 and
+ * s = IV * sqrt(T), which only depends on s. An initial guess from Corrado-Miller, or from the asymptotic wing when that
+ * fails, is refined by third order Householder steps. Below the inflection point of b the steps work on ln(b) like
+ * "Let's Be Rational" does, since b is too flat there for steps on b itself. The steps are kept inside a bracket of
+ * the root and fall back to bisection when they leave it, so every valid price converges. IV isn't capped.
+ * <p>
+ * The normal CDF is always {@link CumulativeNormal#WEST} so the IV reprices to the exact Black-Scholes price whichever
+ * {@link BlackScholes#getCumulativeNormal()} is selected.
+ *
+ * @author GuestMeNot
+ * @see "Jaeckel P. (2015) Let's Be Rational"
+ * @see "Corrado C., Miller T. (1996) A note on a simple, accurate formula to compute implied standard deviations"
+ */
+public final class ImpliedVolatility {
+
+    public static final int STATUS_OK = 0;
+
+    /**
+     * The price is less than the discounted intrinsic value.
+     */
+    public static final int STATUS_BELOW_INTRINSIC = 1;
+
+    /**
+     * The price is at least the most the option can be worth: the stock price for a call or the discounted strike for
+     * a put.
+     */
+    public static final int STATUS_ABOVE_MAXIMUM = 2;
+
+    public static final int STATUS_NO_CONVERGENCE = 3;
+
+    /**
+     * A price, stock price, strike, DTE or rate that is NaN, infinite or not positive (the rate may be 0 or negative).
+     */
+    public static final int STATUS_INVALID_INPUT = 4;
+
+    public static final int MAX_ITERATIONS = 32;
+
+    private static final double LAST_STEP = 1e-5;
+    private static final double SQRT_2PI = Math.sqrt(2 * Math.PI);
+    private static final double INVERSE_SQRT_2PI = 1 / SQRT_2PI;
+
+    private ImpliedVolatility() {
+    }
+
+    /**
+     * @return the IV or NaN if there isn't one.
+     * @see #solve(boolean, double, double, double, double, double, double[], int)
+     */
+    public static double solve(boolean isCallOption, double S, double X, double dte, double r, double optionPrice) {
+
+        double[] iv = new double[1];
+        solve(isCallOption, S, X, dte, r, optionPrice, iv, 0);
+        return iv[0];
+
+    }
+
+    /**
+     * @param S           - the current price of the stock
+     * @param X           - the strike price of the option
+     * @param dte         - the option's days to expiration.
+     * @param r           - the risk free rate of return as a decimal.
+     * @param optionPrice - the price of a single option not a contract.
+     * @param iv          - receives the IV at index, or NaN unless the status is {@link #STATUS_OK}.
+     * @return one of the STATUS_ codes.
+     */
+    public static int solve(boolean isCallOption, double S, double X, double dte, double r, double optionPrice, double[] iv, int index) {
+
+        iv[index] = Double.NaN;
+
+        if (!(S > 0) || !(X > 0) || !(dte > 0) || !(optionPrice >= 0) || Double.isInfinite(S) || Double.isInfinite(X)
+                || Double.isInfinite(dte) || Double.isInfinite(optionPrice) || Double.isNaN(r) || Double.isInfinite(r)) {
+            return STATUS_INVALID_INPUT;
+        }
+
+        double T = BlackScholes.convertDteToYears(dte);
+        double discount = Math.exp(-r * T);
+        double F = S / discount;
+        double price = optionPrice / discount;
+
+        double intrinsic = isCallOption ? Math.max(F - X, 0) : Math.max(X - F, 0);
+        if (price < intrinsic) {
+            return STATUS_BELOW_INTRINSIC;
+        }
+
+        if (price >= (isCallOption ? F : X)) {
+            return STATUS_ABOVE_MAXIMUM;
+        }
+
+        // By put call parity the time value is the price of the out of the money option.
+        double beta = (price - intrinsic) / Math.sqrt(F * X);
+        if (beta == 0) {
+            iv[index] = 0;
+            return STATUS_OK;
+        }
+
+        double x = -Math.abs(Math.log(F / X));
+
+        double s = solveNormalized(beta, x);
+        if (Double.isNaN(s)) {
+            return STATUS_NO_CONVERGENCE;
+        }
+
+        // Within rounding of the maximum.
+        if (Double.isInfinite(s)) {
+            return STATUS_ABOVE_MAXIMUM;
+        }
+
+        iv[index] = s / Math.sqrt(T);
+        return STATUS_OK;
+
+    }
+
+    /**
+     * @param beta - the normalized price in (0, e^(x/2)).
+     * @param x    - the log moneyness &lt;= 0.
+     * @return s, infinity if beta is at the maximum or NaN if it didn't converge.
+     */
+    static double solveNormalized(double beta, double x) {
+
+        // e^(x/2) and e^(-x/2) scale every normalized price.
+        double forward = Math.exp(x / 2);
+        double strike = 1 / forward;
+        if (!(beta < forward)) {
+            return Double.POSITIVE_INFINITY;
+        }
+
+        double lower = 0;
+        double upper = Double.POSITIVE_INFINITY;
+
+        // b is convex below the inflection point, where d1 = 0, and concave above it.
+        double inflection = Math.sqrt(-2 * x);
+        boolean logObjective = inflection > 0
+                && beta < forward / 2 - strike * WestCumulativeNormal.cdf(-inflection, forward * forward);
+        double logBeta = Math.log(beta);
+
+        double s = getInitialGuess(beta, x, forward, strike, logBeta);
+
+        for (int i = 0; i < MAX_ITERATIONS; i++) {
+
+            // exp(-d2^2 / 2) = exp(-d1^2 / 2) * e^x so one exponential serves both CDFs and vega.
+            double inverseS = 1 / s;
+            double d1 = x * inverseS + s / 2;
+            double exponential = Math.exp(-d1 * d1 / 2);
+            double b = forward * WestCumulativeNormal.cdf(d1, exponential) - strike * WestCumulativeNormal.cdf(d1 - s, exponential * forward * forward);
+
+            if (b > beta) {
+                upper = Math.min(upper, s);
+            } else if (b < beta) {
+                lower = Math.max(lower, s);
+            } else {
+                return s;
+            }
+
+            // b'(s), b''/b' and b'''/b'
+            double x2 = x * x;
+            double inverseS2 = inverseS * inverseS;
+            double vega = forward * exponential * INVERSE_SQRT_2PI;
+            double h2 = x2 * inverseS2 * inverseS - s / 4;
+            double h3 = h2 * h2 - 3 * x2 * inverseS2 * inverseS2 - .25;
+
+            double newton;
+            if (logObjective && b > 0) {
+                double q = vega / b;
+                newton = -(Math.log(b) - logBeta) / q;
+                double g2 = h2 - q;
+                h3 = h3 - 3 * h2 * q + 2 * q * q;
+                h2 = g2;
+            } else {
+                newton = -(b - beta) / vega;
+            }
+
+            double step = newton * (1 + .5 * h2 * newton) / (1 + h2 * newton + h3 * newton * newton / 6);
+            if (Double.isNaN(step) || Double.isInfinite(step)) {
+                step = newton;
+            }
+
+            // The steps converge with order 4 so the error after a step this small is below what the price can resolve.
+            if (Math.abs(step) <= LAST_STEP * s) {
+                return s + step;
+            }
+
+            // Where b is saturated even the Newton step leaves the bracket and bisection gets out faster.
+            double next = s + step;
+            if (!(next > lower && next < upper) || !(s + newton > lower && s + newton < upper)) {
+                next = upper == Double.POSITIVE_INFINITY ? 2 * Math.max(s, lower) : (lower + upper) / 2;
+                if (next == lower || next == upper) {
+                    return next;
+                }
+            }
+
+            s = next;
+
+        }
+
+        return Double.NaN;
+
+    }
+
+    private static double getInitialGuess(double beta, double x, double forward, double strike, double logBeta) {
+
+        // Corrado-Miller with F = e^(x/2) and K = e^(-x/2) so sqrt(FK) = 1.
+        double halfDiff = (forward - strike) / 2;
+        double diff = beta - halfDiff;
+        double discriminant = diff * diff - 4 * halfDiff * halfDiff / Math.PI;
+
+        if (discriminant > 0) {
+            double s = SQRT_2PI / (forward + strike) * (diff + Math.sqrt(discriminant));
+            if (s > 0 && !Double.isInfinite(s)) {
+                return s;
+            }
+        }
+
+        // Deep out of the money b ~ e^(-x^2 / 2s^2) so s ~ |x| / sqrt(-2 ln(beta)).
+        double logTimeValue = logBeta - x / 2;
+        if (logTimeValue < 0) {
+            return -x / Math.sqrt(-2 * logTimeValue);
+        }
+
+        return 1;
+
+    }
+
+}
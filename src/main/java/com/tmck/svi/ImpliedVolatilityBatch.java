@@ -0,0 +1,153 @@
+package com.tmck.svi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+
+/**
+ * Solves the IVs of a whole chain held in columns of primitives, one element per contract.
+ * <p>
+ * Nothing is read from or written to {@link com.tmck.svi.valueobjs.OptionData} so a chain of millions of contracts
+ * costs the solves and nothing else. Chunks of contracts are solved concurrently on a work-stealing pool. Every
+ * contract gets its IV and a status from {@link ImpliedVolatility} so the caller decides what to do with prices that
+ * have no IV.
+ * <p>
+ * By default the IVs are those of {@link ImpliedVolatility}: uncapped, and NaN unless the status is
+ * {@link ImpliedVolatility#STATUS_OK}. They are not what
+ * {@link BlackScholes#impliedVolatility(boolean, double, double, double, double, double)} returns, which caps the IV at
+ * {@link BlackScholes#MAX_IV} and falls back to bisection when there is no IV or it is 0. Call
+ * {@link #setBisectionFallback(boolean)} to get exactly the IVs of BlackScholes, e.g. to populate OptionData with
+ * them afterwards. The statuses are those of {@link ImpliedVolatility} either way.
+ *
+ * @author GuestMeNot
+ * @see ImpliedVolatility#solve(boolean, double, double, double, double, double, double[], int)
+ */
+public class ImpliedVolatilityBatch {
+
+    /**
+     * Enough contracts that a task costs far more than scheduling it.
+     */
+    private static final int CONTRACTS_PER_TASK = 4096;
+
+    private final ForkJoinPool pool;
+    private boolean bisectionFallback;
+
+    public ImpliedVolatilityBatch() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public ImpliedVolatilityBatch(ForkJoinPool pool) {
+
+        if (pool == null) {
+            throw new IllegalArgumentException("pool must not be null");
+        }
+
+        this.pool = pool;
+
+    }
+
+    /**
+     * @param bisectionFallback - true to cap the IVs at {@link BlackScholes#MAX_IV} and replace the missing and 0 IVs by
+     *                          bisection like {@link BlackScholes#impliedVolatility(boolean, double, double, double, double, double)}.
+     */
+    public void setBisectionFallback(boolean bisectionFallback) {
+        this.bisectionFallback = bisectionFallback;
+    }
+
+    public boolean isBisectionFallback() {
+        return bisectionFallback;
+    }
+
+    /**
+     * @param calls    - true for a call and false for a put.
+     * @param S        - the current prices of the stocks.
+     * @param X        - the strike prices.
+     * @param dtes     - the days to expiration.
+     * @param r        - the risk free rates as decimals.
+     * @param prices   - the prices of single options not contracts, e.g. the mids.
+     * @param ivs      - receives the IVs, NaN where there is none unless {@link #isBisectionFallback()}.
+     * @param statuses - receives the ImpliedVolatility.STATUS_ codes.
+     * @return the number of contracts solved with {@link ImpliedVolatility#STATUS_OK}.
+     * @throws IllegalArgumentException if the arrays don't have the same length.
+     */
+    public int solve(boolean[] calls, double[] S, double[] X, double[] dtes, double[] r, double[] prices,
+                     double[] ivs, int[] statuses) {
+
+        checkLengths(calls, S, X, dtes, r, prices, ivs, statuses);
+
+        int n = calls.length;
+        boolean fallback = bisectionFallback;
+        List<Callable<Integer>> tasks = new ArrayList<>();
+        for (int from = 0; from < n; from += CONTRACTS_PER_TASK) {
+            int start = from;
+            int end = Math.min(n, from + CONTRACTS_PER_TASK);
+            tasks.add(() -> solve(calls, S, X, dtes, r, prices, ivs, statuses, start, end, fallback));
+        }
+
+        List<Future<Integer>> futures = pool.invokeAll(tasks);
+
+        int solved = 0;
+        try {
+            for (Future<Integer> future : futures) {
+                solved += future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while solving IVs", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("IV solving failed", e.getCause());
+        }
+
+        return solved;
+
+    }
+
+    /**
+     * Solve the contracts from start up to end on the calling thread without the bisection fallback.
+     *
+     * @return the number of contracts solved with {@link ImpliedVolatility#STATUS_OK}.
+     * @see #solve(boolean[], double[], double[], double[], double[], double[], double[], int[])
+     */
+    public static int solve(boolean[] calls, double[] S, double[] X, double[] dtes, double[] r, double[] prices,
+                            double[] ivs, int[] statuses, int start, int end) {
+        return solve(calls, S, X, dtes, r, prices, ivs, statuses, start, end, false);
+    }
+
+    /**
+     * @param bisectionFallback - see {@link #setBisectionFallback(boolean)}.
+     * @see #solve(boolean[], double[], double[], double[], double[], double[], double[], int[], int, int)
+     */
+    public static int solve(boolean[] calls, double[] S, double[] X, double[] dtes, double[] r, double[] prices,
+                            double[] ivs, int[] statuses, int start, int end, boolean bisectionFallback) {
+
+        int solved = 0;
+        for (int i = start; i < end; i++) {
+            int status = ImpliedVolatility.solve(calls[i], S[i], X[i], dtes[i], r[i], prices[i], ivs, i);
+            statuses[i] = status;
+            if (status == ImpliedVolatility.STATUS_OK) {
+                solved++;
+            }
+            if (bisectionFallback) {
+                ivs[i] = BlackScholes.impliedVolatility(calls[i], S[i], X[i], dtes[i], r[i], prices[i], ivs[i], status);
+            }
+        }
+        return solved;
+
+    }
+
+    private static void checkLengths(boolean[] calls, double[] S, double[] X, double[] dtes, double[] r,
+                                     double[] prices, double[] ivs, int[] statuses) {
+
+        int n = calls.length;
+        if (S.length != n || X.length != n || dtes.length != n || r.length != n || prices.length != n
+                || ivs.length != n || statuses.length != n) {
+            throw new IllegalArgumentException("All the columns must have the same length: " + n);
+        }
+
+    }
+
+}
@@ -0,0 +1,274 @@
+package com.tmck.svi;
+
+import com.tmck.svi.SVI.MinimizerSVI;
+
+
+/**
+ * Minimizes the Sum of Squared Residuals of the model IVs with the Levenberg-Marquardt method.
+ * <p>
+ * The SVI residuals are smooth in the parameters so the analytic Jacobian lets each step use every strike at once
+ * rather than searching one direction at a time. Parameterisations without an analytic Jacobian fall back to
+ * forward differences. Stages that minimize the standard error of the residuals are fit by least squares instead.
+ * <p>
+ * There are at most five free parameters so the normal equations are solved directly. The work arrays are
+ * allocated once per stage rather than per evaluation.
+ *
+ * @author GuestMeNot
+ * @see "Madsen, Nielsen and Tingleff - Methods for Non-Linear Least Squares Problems"
+ */
+public class LevenbergMarquardtCalibrationStrategy implements CalibrationStrategy {
+
+    private static final double INITIAL_DAMPING = 1e-3;
+    private static final double MIN_DAMPING = 1e-12;
+    private static final double MAX_DAMPING = 1e12;
+
+    /**
+     * Stop when an accepted step reduces the Sum of Squared Residuals by less than this fraction.
+     */
+    private static final double COST_TOLERANCE = 1e-10;
+
+    /**
+     * Stop when an accepted step moves every parameter by less than this fraction of its magnitude.
+     */
+    private static final double STEP_TOLERANCE = 1e-10;
+
+    /**
+     * sqrt of the machine epsilon.
+     */
+    private static final double FINITE_DIFFERENCE_STEP = 1.5e-8;
+
+    @Override
+    public void minimize(MinimizerSVI function, double[] startParams, int maxEvaluations) {
+
+        int n = function.getNumberOfResiduals();
+        int np = startParams.length;
+        long maxEvals = function.getEvaluations() + maxEvaluations;
+
+        double[] x = startParams.clone();
+        double[] trial = new double[np];
+        double[] r = new double[n];
+        double[] rTrial = new double[n];
+        double[][] jacobian = new double[n][np];
+        double[][] jtj = new double[np][np];
+        double[] jtr = new double[np];
+        double[][] lhs = new double[np][np];
+        double[] step = new double[np];
+
+        double cost = cost(function, x, r);
+        if (Double.isInfinite(cost)) {
+            // There isn't a feasible point to linearise about.
+            return;
+        }
+
+        double damping = INITIAL_DAMPING;
+
+        while (function.getEvaluations() < maxEvals) {
+
+            if (!function.jacobian(x, jacobian)) {
+                forwardDifferences(function, x, r, jacobian, trial, rTrial);
+            }
+
+            double maxGradient = normalEquations(jacobian, r, jtj, jtr);
+            if (maxGradient == 0 || Double.isNaN(maxGradient)) {
+                return;
+            }
+
+            boolean accepted = false;
+
+            while (!accepted && function.getEvaluations() < maxEvals) {
+
+                if (solve(jtj, jtr, damping, lhs, step)) {
+
+                    boolean converged = true;
+                    for (int j = 0; j < np; j++) {
+                        trial[j] = x[j] + step[j];
+                        if (Math.abs(step[j]) > STEP_TOLERANCE * (Math.abs(x[j]) + STEP_TOLERANCE)) {
+                            converged = false;
+                        }
+                    }
+
+                    if (converged) {
+                        return;
+                    }
+
+                    double trialCost = cost(function, trial, rTrial);
+
+                    if (trialCost < cost) {
+
+                        accepted = true;
+                        converged = cost - trialCost <= COST_TOLERANCE * cost;
+
+                        double[] swap = x;
+                        x = trial;
+                        trial = swap;
+                        swap = r;
+                        r = rTrial;
+                        rTrial = swap;
+                        cost = trialCost;
+
+                        damping = Math.max(damping / 10d, MIN_DAMPING);
+
+                        if (converged) {
+                            return;
+                        }
+                        continue;
+                    }
+                }
+
+                damping *= 10d;
+                if (damping > MAX_DAMPING) {
+                    return;
+                }
+            }
+        }
+
+    }
+
+    /**
+     * @return the Sum of Squared Residuals or infinity if the parameters are outside tolerance.
+     */
+    private static double cost(MinimizerSVI function, double[] param, double[] residuals) {
+
+        double value = function.residuals(param, residuals);
+        if (value == Double.MAX_VALUE || Double.isNaN(value)) {
+            return Double.POSITIVE_INFINITY;
+        }
+
+        double ssr = 0;
+        for (double residual : residuals) {
+            ssr += residual * residual;
+        }
+
+        return Double.isNaN(ssr) ? Double.POSITIVE_INFINITY : ssr;
+
+    }
+
+    /**
+     * Differences that step outside tolerance are taken backwards instead.
+     */
+    private static void forwardDifferences(MinimizerSVI function, double[] x, double[] r, double[][] jacobian,
+                                           double[] work, double[] rWork) {
+
+        int n = r.length;
+        System.arraycopy(x, 0, work, 0, x.length);
+
+        for (int j = 0; j < x.length; j++) {
+
+            double h = FINITE_DIFFERENCE_STEP * Math.max(Math.abs(x[j]), 1d);
+
+            work[j] = x[j] + h;
+            if (Double.isInfinite(cost(function, work, rWork))) {
+                h = -h;
+                work[j] = x[j] + h;
+                if (Double.isInfinite(cost(function, work, rWork))) {
+                    for (int i = 0; i < n; i++) {
+                        jacobian[i][j] = 0;
+                    }
+                    work[j] = x[j];
+                    continue;
+                }
+            }
+
+            for (int i = 0; i < n; i++) {
+                jacobian[i][j] = (rWork[i] - r[i]) / h;
+            }
+
+            work[j] = x[j];
+        }
+
+    }
+
+    /**
+     * @return the largest absolute component of the gradient.
+     */
+    private static double normalEquations(double[][] jacobian, double[] r, double[][] jtj, double[] jtr) {
+
+        int np = jtr.length;
+
+        for (int j = 0; j < np; j++) {
+            jtr[j] = 0;
+            for (int l = 0; l < np; l++) {
+                jtj[j][l] = 0;
+            }
+        }
+
+        for (int i = 0; i < r.length; i++) {
+
+            double[] row = jacobian[i];
+            for (int j = 0; j < np; j++) {
+                double rj = row[j];
+                jtr[j] += rj * r[i];
+                for (int l = j; l < np; l++) {
+                    jtj[j][l] += rj * row[l];
+                }
+            }
+        }
+
+        double maxGradient = 0;
+        for (int j = 0; j < np; j++) {
+            for (int l = 0; l < j; l++) {
+                jtj[j][l] = jtj[l][j];
+            }
+            maxGradient = Math.max(maxGradient, Math.abs(jtr[j]));
+        }
+
+        return maxGradient;
+
+    }
+
+    /**
+     * Solves (J'J + damping * diag(J'J)) step = -J'r by Cholesky decomposition.
+     *
+     * @return false if the damped matrix isn't positive definite.
+     */
+    private static boolean solve(double[][] jtj, double[] jtr, double damping, double[][] l, double[] step) {
+
+        int np = jtr.length;
+
+        for (int j = 0; j < np; j++) {
+
+            for (int k = 0; k <= j; k++) {
+
+                double sum = jtj[j][k];
+                if (j == k) {
+                    // The diagonal is floored so a parameter the residuals don't depend on is still damped.
+                    sum += damping * Math.max(jtj[j][j], MIN_DAMPING);
+                }
+
+                for (int i = 0; i < k; i++) {
+                    sum -= l[j][i] * l[k][i];
+                }
+
+                if (j == k) {
+                    if (sum <= 0 || Double.isNaN(sum)) {
+                        return false;
+                    }
+                    l[j][j] = Math.sqrt(sum);
+                } else {
+                    l[j][k] = sum / l[k][k];
+                }
+            }
+        }
+
+        // Forward then back substitution.
+        for (int j = 0; j < np; j++) {
+            double sum = -jtr[j];
+            for (int i = 0; i < j; i++) {
+                sum -= l[j][i] * step[i];
+            }
+            step[j] = sum / l[j][j];
+        }
+
+        for (int j = np - 1; j >= 0; j--) {
+            double sum = step[j];
+            for (int i = j + 1; i < np; i++) {
+                sum -= l[i][j] * step[i];
+            }
+            step[j] = sum / l[j][j];
+        }
+
+        return true;
+
+    }
+
+}
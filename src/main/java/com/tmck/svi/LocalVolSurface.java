@@ -0,0 +1,226 @@
+package com.tmck.svi;
+
+import com.tmck.svi.valueobjs.OptionData;
+
+
+/**
+ * The Dupire local volatility of a calibrated SVI surface precomputed onto a dense (log-moneyness, time) grid for
+ * Monte Carlo and other path-dependent pricing.
+ * <p>
+ * The local variance at log-moneyness k and time t comes from the total implied variance w(k, t):
+ * <pre>
+ *                                  dw/dt
+ *     v_L = -------------------------------------------------------------
+ *           1 - k/w * dw/dk + 1/4 * (-1/4 - 1/w + k^2/w^2) * (dw/dk)^2 + 1/2 * d2w/dk2
+ * </pre>
+ * w, dw/dk and d2w/dk2 are the closed forms of each raw SVI slice and dw/dt is the slope of the total variance
+ * between adjacent slices, i.e. the time interpolation of {@link SviSurface}. Nothing is differenced numerically
+ * so the quotes' noise isn't amplified.
+ * <p>
+ * Where the surface has arbitrage the local variance isn't positive and the grid holds NaN; see
+ * {@link #getInvalidPoints()}. The log-moneyness is relative to the stock price, as everywhere else in SVI, so the
+ * rate is taken as zero like {@link BlackScholes#RISK_FREE_RATE_OF_RETURN}.
+ * <p>
+ * Lookups are a bilinear interpolation of uniform axes so they take constant time and don't allocate. Outside the
+ * grid the edge is used. A surface is immutable and safe to share between threads.
+ *
+ * @author GuestMeNot
+ * @see "The Volatility Surface by Gatheral p. 13 - eq. 1.10"
+ */
+public final class LocalVolSurface {
+
+    public static final int DEFAULT_TIMES = 201;
+
+    private final double minK;
+    private final double dk;
+    private final int numK;
+
+    private final double dt;
+    private final int numT;
+
+    /**
+     * The local variance at time j and log-moneyness i is at j * numK + i.
+     */
+    private final double[] localVariance;
+
+    private final int invalidPoints;
+
+    private LocalVolSurface(double minK, double dk, int numK, double dt, int numT, double[] localVariance, int invalidPoints) {
+        this.minK = minK;
+        this.dk = dk;
+        this.numK = numK;
+        this.dt = dt;
+        this.numT = numT;
+        this.localVariance = localVariance;
+        this.invalidPoints = invalidPoints;
+    }
+
+    /**
+     * @param data - the options of every expiry of one root. Expiries without SVI parameters are skipped.
+     */
+    public static LocalVolSurface build(OptionData[] data) {
+        return build(SviSurface.build(data));
+    }
+
+    /**
+     * The grid runs from t = 0 to the last expiry of the surface.
+     */
+    public static LocalVolSurface build(SviSurface surface) {
+        double[] ts = surface.getTs();
+        return build(surface, SurfaceGrid.DEFAULT_MIN_LOG_STRIKE, SurfaceGrid.DEFAULT_MAX_LOG_STRIKE,
+                SurfaceGrid.DEFAULT_LOG_STRIKES, ts[ts.length - 1], DEFAULT_TIMES);
+    }
+
+    /**
+     * @param maxT - the last time of the grid in years.
+     */
+    public static LocalVolSurface build(SviSurface surface, double minLogStrike, double maxLogStrike, int logStrikes,
+                                        double maxT, int times) {
+
+        if (logStrikes < 2 || !(maxLogStrike > minLogStrike)) {
+            throw new IllegalArgumentException("The grid needs at least 2 log-strikes over a positive range: ["
+                    + minLogStrike + ", " + maxLogStrike + "] x " + logStrikes);
+        }
+
+        if (times < 2 || !(maxT > 0)) {
+            throw new IllegalArgumentException("The grid needs at least 2 times over a positive range: [0, "
+                    + maxT + "] x " + times);
+        }
+
+        double dk = (maxLogStrike - minLogStrike) / (logStrikes - 1);
+        double dt = maxT / (times - 1);
+        double tFirst = surface.getTs()[0];
+
+        double[] localVariance = new double[logStrikes * times];
+        double[] derivatives = new double[4];
+        int invalidPoints = 0;
+
+        for (int j = 0; j < times; j++) {
+
+            double t = j * dt;
+
+            for (int i = 0; i < logStrikes; i++) {
+
+                double k = minLogStrike + i * dk;
+                double v;
+
+                if (j == 0) {
+                    // w vanishes at t = 0 but the IV is flat before the first expiry so the ratios have a limit.
+                    surface.getTotalVarianceDerivatives(k, tFirst, derivatives);
+                    double denominator = 1 - k * derivatives[1] / (2 * derivatives[0]);
+                    v = derivatives[3] / (denominator * denominator);
+                } else {
+                    surface.getTotalVarianceDerivatives(k, t, derivatives);
+                    v = calculateLocalVariance(k, derivatives[0], derivatives[1], derivatives[2], derivatives[3]);
+                }
+
+                if (!(v > 0) || Double.isInfinite(v)) {
+                    v = Double.NaN;
+                    invalidPoints++;
+                }
+
+                localVariance[j * logStrikes + i] = v;
+            }
+        }
+
+        return new LocalVolSurface(minLogStrike, dk, logStrikes, dt, times, localVariance, invalidPoints);
+
+    }
+
+    /**
+     * @param k    - the log-moneyness.
+     * @param w    - the total implied variance.
+     * @param wk   - dw/dk.
+     * @param wkk  - d2w/dk2.
+     * @param wt   - dw/dt.
+     * @return the local variance which isn't positive where there is arbitrage.
+     * @see "The Volatility Surface by Gatheral p. 13 - eq. 1.10"
+     */
+    public static double calculateLocalVariance(double k, double w, double wk, double wkk, double wt) {
+
+        double kw = k / w;
+        double denominator = 1 - kw * wk + .25d * (-.25d - 1 / w + kw * kw) * wk * wk + .5d * wkk;
+        return wt / denominator;
+
+    }
+
+    /**
+     * @param k - the log-moneyness.
+     * @param t - the time in years.
+     * @return the local variance or NaN where the surface has arbitrage.
+     */
+    public double getLocalVariance(double k, double t) {
+
+        double x = (k - minK) / dk;
+        if (x < 0) {
+            x = 0;
+        } else if (x > numK - 1) {
+            x = numK - 1;
+        }
+
+        double y = t / dt;
+        if (y < 0) {
+            y = 0;
+        } else if (y > numT - 1) {
+            y = numT - 1;
+        }
+
+        int i = Math.min((int) x, numK - 2);
+        int j = Math.min((int) y, numT - 2);
+        double fk = x - i;
+        double ft = y - j;
+
+        int idx = j * numK + i;
+        double v0 = localVariance[idx] + fk * (localVariance[idx + 1] - localVariance[idx]);
+        double v1 = localVariance[idx + numK] + fk * (localVariance[idx + numK + 1] - localVariance[idx + numK]);
+
+        return v0 + ft * (v1 - v0);
+
+    }
+
+    /**
+     * @param k - the log-moneyness.
+     * @param t - the time in years.
+     * @return the local volatility or NaN where the surface has arbitrage.
+     */
+    public double getLocalVol(double k, double t) {
+        return Math.sqrt(getLocalVariance(k, t));
+    }
+
+    /**
+     * @param price        - the stock price along the path.
+     * @param currentValue - the stock price the surface was calibrated to.
+     * @param t            - the time in years.
+     */
+    public double getLocalVol(double price, double currentValue, double t) {
+        return getLocalVol(OptionData.getLogStrike(price, currentValue), t);
+    }
+
+    /**
+     * @return the number of grid points where the local variance isn't positive.
+     */
+    public int getInvalidPoints() {
+        return invalidPoints;
+    }
+
+    public double getMinLogStrike() {
+        return minK;
+    }
+
+    public double getMaxLogStrike() {
+        return minK + (numK - 1) * dk;
+    }
+
+    public int getNumLogStrikes() {
+        return numK;
+    }
+
+    public double getMaxT() {
+        return (numT - 1) * dt;
+    }
+
+    public int getNumTimes() {
+        return numT;
+    }
+
+}
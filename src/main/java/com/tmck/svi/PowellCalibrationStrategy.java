@@ -0,0 +1,40 @@
+package com.tmck.svi;
+
+import org.apache.commons.math3.optimization.GoalType;
+import org.apache.commons.math3.optimization.direct.PowellOptimizer;
+
+import com.tmck.svi.SVI.MinimizerSVI;
+
+
+/**
+ * Minimizes the objective with Powell's conjugate direction method.
+ *
+ * @author GuestMeNot
+ */
+public class PowellCalibrationStrategy implements CalibrationStrategy {
+
+    private final double relativeTolerance;
+    private final double absoluteTolerance;
+
+    public PowellCalibrationStrategy() {
+        // We don't want to be off by more than .01 IV points where IV is between (0, 1] so
+        // the Sum of Squared Residuals would be .01*.01=.0001
+        this(.00001d, .00001d);
+    }
+
+    public PowellCalibrationStrategy(double relativeTolerance, double absoluteTolerance) {
+        this.relativeTolerance = relativeTolerance;
+        this.absoluteTolerance = absoluteTolerance;
+    }
+
+    @Override
+    public void minimize(MinimizerSVI function, double[] startParams, int maxEvaluations) {
+
+        // We use the Powell Method because it is more robust than Nelder-Mead.
+        // The optimizer remembers the dimension of its previous search so every stage needs its own instance.
+        PowellOptimizer optimizer = new PowellOptimizer(relativeTolerance, absoluteTolerance);
+        optimizer.optimize(maxEvaluations, function, GoalType.MINIMIZE, startParams);
+
+    }
+
+}
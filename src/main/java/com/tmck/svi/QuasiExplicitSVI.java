@@ -0,0 +1,590 @@
+package com.tmck.svi;
+
+import org.apache.commons.math3.analysis.MultivariateFunction;
+import org.apache.commons.math3.exception.TooManyEvaluationsException;
+import org.apache.commons.math3.optimization.GoalType;
+import org.apache.commons.math3.optimization.PointValuePair;
+import org.apache.commons.math3.optimization.direct.PowellOptimizer;
+
+import com.tmck.svi.valueobjs.OptionData;
+
+
+/**
+ * Quasi-explicit calibration of a single expiry.
+ * <p>
+ * For a fixed (m, sigma) the total variance is linear in (a, d, c):
+ * <pre>
+ *     w(k) = a + d * y + c * sqrt(y * y + 1)    where y = (k - m) / sigma
+ * </pre>
+ * so (a, d, c) are solved exactly by a constrained linear least squares and only (m, sigma) are left to the
+ * nonlinear search.
+ * <p>
+ * A search that runs out of evaluations, or past its deadline, keeps the best (m, sigma) found so far.
+ *
+ * @author GuestMeNot
+ * @see "Quasi-Explicit Calibration of Gatheral's SVI model by Zeliade Systems"
+ */
+public class QuasiExplicitSVI implements MultivariateFunction {
+
+    /**
+     * @see "Issues of Nelder-Mead Simplex Optimization with Constraints by Floc'h"
+     */
+    public static final double MIN_SIGMA = .005d;
+
+    /**
+     * The number of (m, sigma) points per side of the grid used to find the starting point of the search.
+     */
+    private static final int GRID_SIZE = 7;
+
+    private static final double MAX_GRID_SIGMA = 1d;
+
+    public static final int MAX_EVALUATIONS = 2000;
+
+    /**
+     * The deadline is checked every 16 evaluations like {@link SVI} does.
+     */
+    private static final int DEADLINE_CHECK_MASK = 15;
+
+    /**
+     * The constraints (G x <= h) of the domain D for x = (a, d, c).
+     *
+     * @see "Section 3 of Quasi-Explicit Calibration of Gatheral's SVI model"
+     */
+    private static final double[][] G = {
+            {-1, 0, 0},     // MIN_A <= a
+            {1, 0, 0},      // a <= max(w)
+            {0, 1, -1},     // d <= c
+            {0, -1, -1},    // -d <= c
+            {0, 1, 1},      // c + d <= 4 * sigma
+            {0, -1, 1},     // c - d <= 4 * sigma
+    };
+
+    /**
+     * The paper allows a = 0 but SVI.parametersWithinTolerance() requires a > 0.
+     */
+    private static final double MIN_A = 1e-10;
+
+    private static final double FEASIBILITY_TOLERANCE = 1e-12;
+
+    /**
+     * The active sets ordered by size so the common cases of one or two active constraints are tried first.
+     */
+    private static final int[] ACTIVE_SETS = createActiveSets();
+
+    private final double[] logStrikes;
+    private final double[] totalVariances;
+    private final double[] ivs;
+    private final double t;
+    private final double maxTotalVariance;
+
+    private final double[][] kkt = new double[6][7];
+    private final double[] solution = new double[6];
+    private final double[] candidate = new double[3];
+    private final double[] best = new double[3];
+    private final double[] h = new double[6];
+    private final double[] moments = new double[10];
+
+    private double a = Double.NaN;
+    private double d = Double.NaN;
+    private double c = Double.NaN;
+    private double m = Double.NaN;
+    private double sigma = Double.NaN;
+    private double minSum = Double.NaN;
+    private long evaluations = 0;
+    private int maxEvaluations = MAX_EVALUATIONS;
+
+    // The best point of the (m, sigma) search so far, kept in case the deadline stops it.
+    private double bestM = Double.NaN;
+    private double bestSigma = Double.NaN;
+    private double bestSum = Double.MAX_VALUE;
+
+    private boolean hasDeadline;
+    private long deadlineNanos;
+    private boolean deadlineExceeded;
+
+    public QuasiExplicitSVI(OptionData[] data) {
+        this(OptionData.getLogStrike(data), OptionData.getIVs(data), SVI.getT(data));
+    }
+
+    /**
+     * @param logStrikes - the log-strike of each option.
+     * @param ivs        - the market IV of each option.
+     * @param t          - the time to expiry in years.
+     */
+    public QuasiExplicitSVI(double[] logStrikes, double[] ivs, double t) {
+
+        if (logStrikes.length != ivs.length) {
+            throw new IllegalArgumentException("logStrikes.length(" + logStrikes.length + ") != ivs.length(" + ivs.length + ")");
+        }
+
+        if (logStrikes.length < 3) {
+            throw new IllegalStateException("Too little data for the quasi-explicit SVI: " + logStrikes.length);
+        }
+
+        this.logStrikes = logStrikes;
+        this.ivs = ivs;
+        this.t = t;
+
+        double max = 0;
+        totalVariances = new double[ivs.length];
+        for (int i = 0; i < ivs.length; i++) {
+            totalVariances[i] = SVI.getWTFromIV(ivs[i], t);
+            max = Math.max(max, totalVariances[i]);
+        }
+        maxTotalVariance = max;
+
+    }
+
+    /**
+     * Search (m, sigma) starting from the best point of a coarse grid.
+     */
+    public void calibrate() {
+
+        double minK = Double.MAX_VALUE;
+        double maxK = -Double.MAX_VALUE;
+        for (double k : logStrikes) {
+            minK = Math.min(minK, k);
+            maxK = Math.max(maxK, k);
+        }
+
+        double mStart = Double.NaN;
+        double sigmaStart = Double.NaN;
+        double minGridSum = Double.MAX_VALUE;
+
+        double sigmaRatio = Math.pow(MAX_GRID_SIGMA / MIN_SIGMA, 1d / (GRID_SIZE - 1));
+        for (int i = 0; i < GRID_SIZE; i++) {
+
+            // At least one row is searched so there is a starting point. The search from it then stops at once.
+            if (i > 0 && isPastDeadline()) {
+                break;
+            }
+
+            double gridM = minK + (maxK - minK) * i / (GRID_SIZE - 1);
+            double gridSigma = MIN_SIGMA;
+            for (int j = 0; j < GRID_SIZE; j++) {
+                double sum = value(gridM, gridSigma);
+                if (sum < minGridSum) {
+                    minGridSum = sum;
+                    mStart = gridM;
+                    sigmaStart = gridSigma;
+                }
+                gridSigma *= sigmaRatio;
+            }
+        }
+
+        calibrate(mStart, sigmaStart);
+
+    }
+
+    /**
+     * Search (m, sigma) from the given starting point.
+     */
+    public void calibrate(double mStart, double sigmaStart) {
+
+        if (sigmaStart < MIN_SIGMA) {
+            sigmaStart = MIN_SIGMA;
+        }
+
+        bestM = mStart;
+        bestSigma = sigmaStart;
+        bestSum = Double.MAX_VALUE;
+        deadlineExceeded = false;
+
+        if (isPastDeadline()) {
+            deadlineExceeded = true;
+            m = mStart;
+            sigma = sigmaStart;
+        } else {
+            try {
+                // sigma is searched as log(sigma) so every point the line search tries is valid.
+                PowellOptimizer powell = new PowellOptimizer(1e-10d, 1e-14d);
+                PointValuePair point = powell.optimize(maxEvaluations, this, GoalType.MINIMIZE, new double[]{mStart, Math.log(sigmaStart)});
+                double[] ms = point.getPoint();
+
+                m = ms[0];
+                sigma = getSigma(ms[1]);
+            } catch (TooManyEvaluationsException e) {
+                // Keep the best point found within the budget rather than losing the slice.
+                m = bestM;
+                sigma = bestSigma;
+            } catch (SVI.DeadlineExceededException e) {
+                deadlineExceeded = true;
+                m = bestM;
+                sigma = bestSigma;
+            }
+        }
+
+        // Re-solve at the optimum so that (a, d, c) belong to (m, sigma).
+        value(m, sigma);
+
+        a = best[0];
+        d = best[1];
+        c = best[2];
+
+    }
+
+    /**
+     * @param point - (m, log(sigma))
+     * @throws SVI.DeadlineExceededException once the deadline has passed.
+     */
+    @Override
+    public double value(double[] point) {
+
+        if ((evaluations & DEADLINE_CHECK_MASK) == 0 && isPastDeadline()) {
+            throw new SVI.DeadlineExceededException("Quasi-explicit SVI deadline exceeded after " + evaluations + " evaluations");
+        }
+
+        double m = point[0];
+        double sigma = getSigma(point[1]);
+        double sum = value(m, sigma);
+
+        if (sum < bestSum) {
+            bestSum = sum;
+            bestM = m;
+            bestSigma = sigma;
+        }
+
+        return sum;
+
+    }
+
+    private static double getSigma(double logSigma) {
+        return Math.max(MIN_SIGMA, Math.exp(logSigma));
+    }
+
+    /**
+     * @return the minimum sum of squared total variance residuals for the given (m, sigma).
+     */
+    public double value(double m, double sigma) {
+
+        evaluations++;
+
+        if (sigma < MIN_SIGMA || Double.isNaN(m) || Double.isInfinite(m)) {
+            return Double.MAX_VALUE;
+        }
+
+        loadMoments(m, sigma);
+
+        h[0] = -MIN_A;
+        h[1] = maxTotalVariance;
+        h[2] = 0;
+        h[3] = 0;
+        h[4] = 4 * sigma;
+        h[5] = 4 * sigma;
+
+        minSum = Double.MAX_VALUE;
+
+        // The unconstrained solution is usually feasible.
+        if (solve(0) && isFeasible()) {
+            keepIfBest();
+            return minSum;
+        }
+
+        // Otherwise the solution lies on the boundary of D.
+        // The minimum of a convex quadratic over D is the best feasible equality constrained solution
+        // over the sets of (at most 3) active constraints and a solution whose multipliers are all
+        // non-negative satisfies the KKT conditions so it is the minimum.
+        for (int active : ACTIVE_SETS) {
+            if (solve(active) && isFeasible()) {
+                keepIfBest();
+                if (isOptimal(Integer.bitCount(active))) {
+                    return minSum;
+                }
+            }
+        }
+
+        return minSum;
+
+    }
+
+    private static int[] createActiveSets() {
+
+        int[] sets = new int[41];
+        int i = 0;
+        for (int size = 1; size <= 3; size++) {
+            for (int active = 1; active < (1 << G.length); active++) {
+                if (Integer.bitCount(active) == size) {
+                    sets[i++] = active;
+                }
+            }
+        }
+
+        return sets;
+
+    }
+
+    /**
+     * Load the normal equations of w = a + d * y + c * z.
+     */
+    private void loadMoments(double m, double sigma) {
+
+        double sy = 0, sz = 0, syy = 0, syz = 0, szz = 0, sw = 0, syw = 0, szw = 0, sww = 0;
+
+        for (int i = 0; i < logStrikes.length; i++) {
+
+            double y = (logStrikes[i] - m) / sigma;
+            double z = Math.sqrt(y * y + 1);
+            double w = totalVariances[i];
+
+            sy += y;
+            sz += z;
+            syy += y * y;
+            syz += y * z;
+            szz += z * z;
+            sw += w;
+            syw += y * w;
+            szw += z * w;
+            sww += w * w;
+
+        }
+
+        moments[0] = logStrikes.length;
+        moments[1] = sy;
+        moments[2] = sz;
+        moments[3] = syy;
+        moments[4] = syz;
+        moments[5] = szz;
+        moments[6] = sw;
+        moments[7] = syw;
+        moments[8] = szw;
+        moments[9] = sww;
+
+    }
+
+    /**
+     * Solve the KKT system of the least squares with the constraints in the active bit mask held as equalities.
+     *
+     * @return false if the system is singular.
+     */
+    private boolean solve(int active) {
+
+        double[][] sys = kkt;
+        int size = 3;
+
+        // The normal equations A'A x = A'w
+        double[] mo = moments;
+        sys[0][0] = mo[0];
+        sys[0][1] = mo[1];
+        sys[0][2] = mo[2];
+        sys[0][6] = mo[6];
+        sys[1][0] = mo[1];
+        sys[1][1] = mo[3];
+        sys[1][2] = mo[4];
+        sys[1][6] = mo[7];
+        sys[2][0] = mo[2];
+        sys[2][1] = mo[4];
+        sys[2][2] = mo[5];
+        sys[2][6] = mo[8];
+
+        for (int j = 0; j < G.length; j++) {
+            if ((active & (1 << j)) == 0) {
+                continue;
+            }
+            for (int i = 0; i < 3; i++) {
+                sys[i][size] = G[j][i];
+                sys[size][i] = G[j][i];
+            }
+            sys[size][6] = h[j];
+            size++;
+        }
+
+        for (int i = 3; i < size; i++) {
+            for (int k = 3; k < size; k++) {
+                sys[i][k] = 0;
+            }
+        }
+
+        for (int i = 0; i < size; i++) {
+            sys[i][size] = sys[i][6];
+        }
+
+        if (!gaussianElimination(sys, size)) {
+            return false;
+        }
+
+        candidate[0] = solution[0];
+        candidate[1] = solution[1];
+        candidate[2] = solution[2];
+        return true;
+
+    }
+
+    /**
+     * Solve the augmented (size x size + 1) system in place with partial pivoting.
+     */
+    private boolean gaussianElimination(double[][] sys, int size) {
+
+        for (int col = 0; col < size; col++) {
+
+            int pivot = col;
+            for (int row = col + 1; row < size; row++) {
+                if (Math.abs(sys[row][col]) > Math.abs(sys[pivot][col])) {
+                    pivot = row;
+                }
+            }
+
+            if (Math.abs(sys[pivot][col]) < 1e-14) {
+                return false;
+            }
+
+            double[] tmp = sys[col];
+            sys[col] = sys[pivot];
+            sys[pivot] = tmp;
+
+            for (int row = col + 1; row < size; row++) {
+                double factor = sys[row][col] / sys[col][col];
+                for (int k = col; k <= size; k++) {
+                    sys[row][k] -= factor * sys[col][k];
+                }
+            }
+
+        }
+
+        for (int row = size - 1; row >= 0; row--) {
+            double sum = sys[row][size];
+            for (int k = row + 1; k < size; k++) {
+                sum -= sys[row][k] * solution[k];
+            }
+            solution[row] = sum / sys[row][row];
+        }
+
+        return true;
+
+    }
+
+    /**
+     * @return true if the Lagrange multipliers of the last solution are non-negative.
+     */
+    private boolean isOptimal(int numActive) {
+
+        for (int i = 3; i < 3 + numActive; i++) {
+            if (solution[i] < -FEASIBILITY_TOLERANCE) {
+                return false;
+            }
+        }
+
+        return true;
+
+    }
+
+    private boolean isFeasible() {
+
+        for (int j = 0; j < G.length; j++) {
+            double gx = G[j][0] * candidate[0] + G[j][1] * candidate[1] + G[j][2] * candidate[2];
+            if (gx > h[j] + FEASIBILITY_TOLERANCE) {
+                return false;
+            }
+        }
+
+        return true;
+
+    }
+
+    private void keepIfBest() {
+
+        double[] mo = moments;
+        double x0 = candidate[0];
+        double x1 = candidate[1];
+        double x2 = candidate[2];
+
+        // |Ax - w|^2 = x'A'Ax - 2x'A'w + w'w
+        double xSx = x0 * (mo[0] * x0 + mo[1] * x1 + mo[2] * x2)
+                + x1 * (mo[1] * x0 + mo[3] * x1 + mo[4] * x2)
+                + x2 * (mo[2] * x0 + mo[4] * x1 + mo[5] * x2);
+        double xr = x0 * mo[6] + x1 * mo[7] + x2 * mo[8];
+        double sum = xSx - 2 * xr + mo[9];
+
+        if (sum < minSum) {
+            minSum = sum;
+            best[0] = x0;
+            best[1] = x1;
+            best[2] = x2;
+        }
+
+    }
+
+    /**
+     * @return the SVI a expressed per year as stored on OptionData.
+     */
+    public double getA() {
+        return a / t;
+    }
+
+    /**
+     * @return the SVI b expressed per year as stored on OptionData.
+     */
+    public double getB() {
+        return c / (sigma * t);
+    }
+
+    public double getP() {
+        return c == 0 ? 0 : d / c;
+    }
+
+    public double getM() {
+        return m;
+    }
+
+    public double getSigma() {
+        return sigma;
+    }
+
+    /**
+     * @return the sum of squared IV residuals of the calibrated slice.
+     */
+    public double getSSR() {
+
+        double a = getA();
+        double b = getB();
+        double p = getP();
+
+        double[] w = new double[logStrikes.length];
+        SVI.calculateSVI(a * t, b * t, p, m, sigma, t, logStrikes, w);
+
+        double ssr = 0;
+        for (int i = 0; i < logStrikes.length; i++) {
+            double residual = SVI.getIVFromWT(w[i], t) - ivs[i];
+            ssr += residual * residual;
+        }
+
+        return ssr;
+
+    }
+
+    public int getMaxEvaluations() {
+        return maxEvaluations;
+    }
+
+    /**
+     * @param maxEvaluations - the evaluation budget of the (m, sigma) search.
+     */
+    public void setMaxEvaluations(int maxEvaluations) {
+        this.maxEvaluations = maxEvaluations;
+    }
+
+    public long getEvaluations() {
+        return evaluations;
+    }
+
+    /**
+     * Stop searching once the deadline has passed keeping the best (m, sigma) found so far.
+     *
+     * @param deadlineNanos - a {@link System#nanoTime()} value.
+     */
+    public void setDeadline(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+        this.hasDeadline = true;
+    }
+
+    private boolean isPastDeadline() {
+        return hasDeadline && System.nanoTime() - deadlineNanos > 0;
+    }
+
+    /**
+     * @return true if the last calibration was cut short by the deadline.
+     */
+    public boolean isDeadlineExceeded() {
+        return deadlineExceeded;
+    }
+
+}
@@ -0,0 +1,342 @@
+package com.tmck.svi;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.math3.analysis.MultivariateFunction;
+import org.apache.commons.math3.optimization.GoalType;
+import org.apache.commons.math3.optimization.PointValuePair;
+import org.apache.commons.math3.optimization.direct.PowellOptimizer;
+
+import com.tmck.svi.valueobjs.OptionData;
+
+
+/**
+ * Surface SVI of Gatheral and Jacquier fit to every expiry of a chain at once.
+ * <p>
+ * The total variance at log-strike k of an expiry with ATM total variance theta is
+ * <pre>
+ *     w(k, theta) = theta / 2 * (1 + rho * phi * k + sqrt((phi * k + rho)^2 + 1 - rho^2))
+ * </pre>
+ * with the power-law phi(theta) = eta / (theta^gamma * (1 + theta)^(1 - gamma)). theta is taken from the ATM
+ * market IV of each expiry, so only rho, eta and gamma are left to the optimizer.
+ * <p>
+ * The surface is free of static arbitrage when theta is non-decreasing in t, 0 &lt; gamma &lt;= 1/2 and
+ * eta * (1 + |rho|) &lt;= 2. theta is made non-decreasing before fitting and the optimizer searches a mapping of
+ * (rho, eta, gamma) that always satisfies the rest, so static arbitrage never needs to be checked after the fact.
+ * With gamma above 1/2, theta * phi^2 grows without bound as theta goes to 0 and short expiries have butterfly
+ * arbitrage.
+ * <p>
+ * Expiries without an ATM IV are left out of the fit and their options aren't written to.
+ *
+ * @author GuestMeNot
+ * @see "Arbitrage-free SVI volatility surfaces by Gatheral and Jacquier - section 4"
+ */
+public class SSVI implements MultivariateFunction {
+
+    private static final int MAX_EVALUATIONS = 5000;
+
+    /**
+     * Typical equity skews so the search doesn't settle on the wrong sign of rho.
+     */
+    private static final double[] RHO_STARTS = {-.5, 0};
+
+    private final OptionData[][] slices;
+    private final double[] ts;
+    private final double[] thetas;
+
+    // Flattened over every option of every slice so evaluating the objective doesn't allocate.
+    private final double[] logStrikes;
+    private final double[] ivs;
+    private final int[] sliceIndex;
+
+    private double rho = Double.NaN;
+    private double eta = Double.NaN;
+    private double gamma = Double.NaN;
+    private double minSum = Double.NaN;
+    private long evaluations = 0;
+
+    /**
+     * @param data - the options of every expiry of one root.
+     */
+    public SSVI(OptionData[] data) {
+
+        List<Double> dtes = OptionData.getDtes(data);
+
+        if (dtes.isEmpty()) {
+            throw new IllegalStateException("Too little data for SSVI");
+        }
+
+        List<OptionData[]> validSlices = new ArrayList<>();
+        List<Double> validTs = new ArrayList<>();
+        List<Double> validThetas = new ArrayList<>();
+
+        for (Double dte : dtes) {
+            OptionData[] slice = dtes.size() == 1 ? data : OptionData.getOptionsByDte(data, dte);
+            double t = SVI.getT(slice);
+            double theta = getAtmTotalVariance(slice, t);
+
+            // Without an ATM IV there is no theta to fit the expiry to, so it is left out rather than failing the surface.
+            if (!(theta > 0) || Double.isInfinite(theta)) {
+                continue;
+            }
+
+            validSlices.add(slice);
+            validTs.add(t);
+            validThetas.add(theta);
+        }
+
+        if (validSlices.isEmpty()) {
+            throw new IllegalStateException("No expiry has an ATM IV for SSVI");
+        }
+
+        slices = validSlices.toArray(new OptionData[0][]);
+        ts = new double[slices.length];
+        thetas = new double[slices.length];
+
+        int count = 0;
+        for (int i = 0; i < slices.length; i++) {
+            ts[i] = validTs.get(i);
+            thetas[i] = validThetas.get(i);
+            count += slices[i].length;
+        }
+
+        // The ATM total variance must not decrease with the expiry or there is calendar arbitrage.
+        for (int i = 1; i < thetas.length; i++) {
+            if (!(thetas[i] >= thetas[i - 1])) {
+                thetas[i] = thetas[i - 1];
+            }
+        }
+
+        logStrikes = new double[count];
+        ivs = new double[count];
+        sliceIndex = new int[count];
+
+        int j = 0;
+        for (int i = 0; i < slices.length; i++) {
+            for (OptionData option : slices[i]) {
+                logStrikes[j] = OptionData.getLogStrike(option);
+                ivs[j] = option.getIV();
+                sliceIndex[j] = i;
+                j++;
+            }
+        }
+
+    }
+
+    /**
+     * Interpolates the total variance linearly in log-strike between the options either side of the money.
+     */
+    private static double getAtmTotalVariance(OptionData[] slice, double t) {
+
+        double belowK = -Double.MAX_VALUE;
+        double belowW = Double.NaN;
+        double aboveK = Double.MAX_VALUE;
+        double aboveW = Double.NaN;
+
+        for (OptionData option : slice) {
+
+            double iv = option.getIV();
+            if (Double.isNaN(iv)) {
+                continue;
+            }
+
+            double k = OptionData.getLogStrike(option);
+            double w = SVI.getWTFromIV(iv, t);
+
+            if (k <= 0 && k > belowK) {
+                belowK = k;
+                belowW = w;
+            }
+
+            if (k >= 0 && k < aboveK) {
+                aboveK = k;
+                aboveW = w;
+            }
+        }
+
+        if (Double.isNaN(belowW)) {
+            return aboveW;
+        }
+
+        if (Double.isNaN(aboveW) || aboveK == belowK) {
+            return belowW;
+        }
+
+        return belowW + (aboveW - belowW) * (-belowK) / (aboveK - belowK);
+
+    }
+
+    /**
+     * @see "eq. 4.5 of Arbitrage-free SVI volatility surfaces"
+     */
+    public static double getPhi(double theta, double eta, double gamma) {
+        return eta / (Math.pow(theta, gamma) * Math.pow(1 + theta, 1 - gamma));
+    }
+
+    /**
+     * @return the total variance.
+     * @see "eq. 4.1 of Arbitrage-free SVI volatility surfaces"
+     */
+    public static double calculateSSVI(double k, double theta, double rho, double phi) {
+        double phiK = phi * k;
+        double phiKRho = phiK + rho;
+        return theta / 2d * (1 + rho * phiK + Math.sqrt(phiKRho * phiKRho + 1 - rho * rho));
+    }
+
+    public void calibrate() {
+
+        for (double rhoStart : RHO_STARTS) {
+
+            PowellOptimizer powell = new PowellOptimizer(1e-10d, 1e-14d);
+            // eta starts half way to its bound and gamma at 1/4.
+            powell.optimize(MAX_EVALUATIONS, this, GoalType.MINIMIZE, new double[]{atanh(rhoStart), 0, 0});
+        }
+
+        if (Double.isNaN(minSum)) {
+            throw new IllegalStateException("SSVI could not be calibrated");
+        }
+
+    }
+
+    /**
+     * @param point - unconstrained coordinates mapped onto the arbitrage free (rho, eta, gamma).
+     */
+    @Override
+    public double value(double[] point) {
+
+        evaluations++;
+
+        double rho = Math.tanh(point[0]);
+        double eta = 2d / (1 + Math.abs(rho)) * logistic(point[1]);
+        double gamma = .5 * logistic(point[2]);
+
+        // rho = +-1 leaves a = 0 which SVI rejects.
+        if (!(Math.abs(rho) < 1) || !(eta > 0) || !(gamma > 0)) {
+            return Double.MAX_VALUE;
+        }
+
+        double ssr = 0;
+        int lastSlice = -1;
+        double theta = Double.NaN;
+        double phi = Double.NaN;
+        double t = Double.NaN;
+
+        for (int i = 0; i < logStrikes.length; i++) {
+
+            double iv = ivs[i];
+            if (Double.isNaN(iv)) {
+                continue;
+            }
+
+            int slice = sliceIndex[i];
+            if (slice != lastSlice) {
+                lastSlice = slice;
+                theta = thetas[slice];
+                t = ts[slice];
+                phi = getPhi(theta, eta, gamma);
+            }
+
+            double residual = SVI.getIVFromWT(calculateSSVI(logStrikes[i], theta, rho, phi), t) - iv;
+            ssr += residual * residual;
+        }
+
+        if (Double.isNaN(ssr)) {
+            return Double.MAX_VALUE;
+        }
+
+        if (Double.isNaN(minSum) || ssr < minSum) {
+            minSum = ssr;
+            this.rho = rho;
+            this.eta = eta;
+            this.gamma = gamma;
+        }
+
+        return ssr;
+
+    }
+
+    private static double logistic(double x) {
+        return 1d / (1d + Math.exp(-x));
+    }
+
+    private static double atanh(double x) {
+        return .5d * Math.log((1 + x) / (1 - x));
+    }
+
+    /**
+     * Write the raw SVI parameters of each expiry that was fit to its options.
+     *
+     * @see "Lemma 3.3 of Arbitrage-free SVI volatility surfaces"
+     */
+    public void setSVIValues() {
+
+        for (int i = 0; i < slices.length; i++) {
+
+            double theta = thetas[i];
+            double t = ts[i];
+            double phi = getPhi(theta, eta, gamma);
+
+            double a = theta / 2d * (1 - rho * rho);
+            double b = theta * phi / 2d;
+            double m = -rho / phi;
+            double sigma = Math.sqrt(1 - rho * rho) / phi;
+
+            // OptionData stores a and b per year.
+            OptionData.setSVIValues(slices[i], a / t, b / t, rho, m, sigma);
+        }
+
+    }
+
+    /**
+     * Fit the whole chain and write the equivalent raw SVI parameters to every option.
+     *
+     * @param data - the options of every expiry of one root.
+     */
+    public static SSVI calculateSVIParams(OptionData[] data) {
+
+        SSVI ssvi = new SSVI(data);
+        ssvi.calibrate();
+        ssvi.setSVIValues();
+        return ssvi;
+
+    }
+
+    public double getRho() {
+        return rho;
+    }
+
+    public double getEta() {
+        return eta;
+    }
+
+    public double getGamma() {
+        return gamma;
+    }
+
+    /**
+     * @return the ATM total variance of each expiry that was fit in DTE order.
+     */
+    public double[] getThetas() {
+        return thetas.clone();
+    }
+
+    /**
+     * @return the time to expiry in years of each expiry that was fit in DTE order.
+     */
+    public double[] getTs() {
+        return ts.clone();
+    }
+
+    /**
+     * @return the sum of squared IV residuals over every option.
+     */
+    public double getSSR() {
+        return minSum;
+    }
+
+    public long getEvaluations() {
+        return evaluations;
+    }
+
+}
@@ -1,13 +1,16 @@
 package com.tmck.svi;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import org.apache.commons.math3.analysis.MultivariateFunction;
-import org.apache.commons.math3.optimization.GoalType;
-import org.apache.commons.math3.optimization.MultivariateOptimizer;
-import org.apache.commons.math3.optimization.PointValuePair;
-import org.apache.commons.math3.optimization.direct.PowellOptimizer;
+import org.apache.commons.math3.exception.TooManyEvaluationsException;
 
 import com.tmck.svi.utils.FastDate;
 import com.tmck.svi.utils.SimpleStatisticsUtils;
@@ -25,13 +28,77 @@ public class SVI {
 
 
     private static final boolean debug = false;
+
+    /**
+     * We don't want to be off by more than .01 IV points per strike so a warm start is good enough
+     * when the Sum of Squared Residuals is within .01*.01=.0001 per strike.
+     */
+    public static final double SSR_TOLERANCE_PER_STRIKE = .0001d;
+
+    /**
+     * The deadline is checked every 16 evaluations since System.nanoTime() costs about as much as an evaluation.
+     */
+    private static final int DEADLINE_CHECK_MASK = 15;
+
     private double a, b, p, sigma, m = Double.NaN;
     private OptionData[] data;
+    private CalibrationPlan plan;
+    private SviParamCache paramCache;
+    private CalibrationStrategy strategy = CalibrationStrategy.POWELL;
+    private List<CalibrationPlan.StageResult> stageResults = Collections.emptyList();
+
+    /**
+     * The heuristic starting point: a, b, p, m and sigma. Only calculated if a stage starts from it.
+     */
+    private double[] startParams;
+
+    private boolean hasDeadline;
+    private long deadlineNanos;
+    private boolean deadlineExceeded;
 
     private double ssr = Double.MAX_VALUE;
 
+    /**
+     * Thrown from the objective to abandon a stage once the deadline has passed.
+     */
+    public static class DeadlineExceededException extends IllegalStateException {
+
+        private static final long serialVersionUID = 4619358812207154432L;
+
+        public DeadlineExceededException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * How a slice is calibrated.
+     *
+     * @see CalibrationPlan#forMode(CalibrationMode)
+     */
+    public enum CalibrationMode {
+
+        /**
+         * Minimize over the quasi, raw and JW parameterisations in turn with the {@link CalibrationStrategy}.
+         *
+         * @see CalibrationPlan#full()
+         */
+        STAGED,
+
+        /**
+         * Solve (a, c, d) exactly for each (m, sigma) so the nonlinear search is only 2-D.
+         *
+         * @see CalibrationPlan#quasiExplicit()
+         */
+        QUASI_EXPLICIT
+    }
+
     public SVI(OptionData[] data) {
+        this(data, CalibrationMode.STAGED);
+    }
+
+    public SVI(OptionData[] data, CalibrationMode mode) {
         this.data = data;
+        this.plan = CalibrationPlan.forMode(mode);
         if (data.length < 3) {
 
             int dte = Integer.MAX_VALUE;
@@ -190,6 +257,110 @@ public class SVI {
 
     }
 
+    /**
+     * Evaluates the raw SVI at every log-strike of a slice checking the parameters once rather than per strike.
+     *
+     * @param a   - the raw a, i.e. already multiplied by t.
+     * @param b   - the raw b, i.e. already multiplied by t.
+     * @param ks  - the log-strikes.
+     * @param w_t - receives the total variance at each log-strike or {@link Double#MAX_VALUE} where
+     *            {@link #calculateSVI(double, double, double, double, double, double, double, double)} would return it.
+     * @return false if the parameters are outside tolerance in which case every total variance is {@link Double#MAX_VALUE}.
+     * @see "eq. 3.1 - p. 5"
+     */
+    public static boolean calculateSVI(double a, double b, double p, double m, double sigma, double t, double[] ks, double[] w_t) {
+        return calculateSVI(a, b, p, m, sigma, t, ks, w_t, ks.length);
+    }
+
+    /**
+     * @param n - the number of log-strikes at the start of ks, so ks and w_t can be longer reusable buffers.
+     * @throws IllegalArgumentException if ks or w_t is shorter than n.
+     * @see #calculateSVI(double, double, double, double, double, double, double[], double[])
+     */
+    public static boolean calculateSVI(double a, double b, double p, double m, double sigma, double t, double[] ks, double[] w_t, int n) {
+
+        if (n < 0 || ks.length < n || w_t.length < n) {
+            throw new IllegalArgumentException("Expected " + n + " log-strikes and total variances but there are "
+                    + ks.length + " and " + w_t.length);
+        }
+
+        if (!parametersWithinTolerance(a, b, p, m, sigma, t)) {
+            Arrays.fill(w_t, 0, n, Double.MAX_VALUE);
+            return false;
+        }
+
+        calculateSVIWithinTolerance(a, b, p, m, sigma, ks, w_t, n);
+        return true;
+
+    }
+
+    /**
+     * The main loop only uses arithmetic and Math.sqrt so the JIT compiles it to packed SIMD instructions.
+     * The jdk.incubator.vector API isn't used since it is not available to a Java 15 build.
+     */
+    private static void calculateSVIWithinTolerance(double a, double b, double p, double m, double sigma, double[] ks, double[] w_t, int n) {
+
+        double sigmasigma = sigma * sigma;
+
+        for (int i = 0; i < n; i++) {
+            double km = ks[i] - m;
+            w_t[i] = a + b * (p * km + Math.sqrt(km * km + sigmasigma));
+        }
+
+        // Kept out of the main loop since it can only happen through overflow or rounding.
+        for (int i = 0; i < n; i++) {
+            double w_i = w_t[i];
+            if (w_i < 0 || Double.isInfinite(w_i)) {
+                w_t[i] = Double.MAX_VALUE;
+            }
+        }
+
+    }
+
+    /**
+     * @param strikes - the real strikes.
+     * @param ivs     - receives the SVI IV at each strike or NaN where the total variance is invalid. It may be longer
+     *                than strikes and the elements after them aren't touched.
+     * @throws IllegalArgumentException if ivs is shorter than strikes.
+     * @see #calculateVI(OptionData, double, double)
+     */
+    public static void calculateVIs(OptionData ref, double[] strikes, double currentValue, double[] ivs) {
+
+        int n = strikes.length;
+        if (ivs.length < n) {
+            throw new IllegalArgumentException("Expected at least " + n + " IVs but there are " + ivs.length);
+        }
+
+        double a = ref.getValue(OptionData.SVI_A);
+        double b = ref.getValue(OptionData.SVI_B);
+        double p = ref.getValue(OptionData.SVI_P);
+        double m = ref.getValue(OptionData.SVI_M);
+        double sigma = ref.getValue(OptionData.SVI_SIGMA);
+
+        double t = BlackScholes.getT(ref);
+
+        // The log-strikes are written to the output so a query doesn't allocate.
+        for (int i = 0; i < n; i++) {
+            ivs[i] = OptionData.getLogStrike(strikes[i], currentValue);
+        }
+
+        calculateSVI(a * t, b * t, p, m, sigma, t, ivs, ivs, n);
+        toIVs(ivs, n, t);
+
+    }
+
+    /**
+     * Converts total variances to IVs in place.
+     */
+    private static void toIVs(double[] w_t, int n, double t) {
+
+        for (int i = 0; i < n; i++) {
+            double w_i = w_t[i];
+            w_t[i] = w_i == Double.MAX_VALUE ? Double.NaN : getIVFromWT(w_i, t);
+        }
+
+    }
+
     // @see Section 2.1 of Quasi-Explicit Calibration of Gatheral�s SVI model
     public static double getMinIVLogStrike(double m, double p, double sigma) {
         return m - (p * sigma / Math.sqrt(1 - p * p));
@@ -291,11 +462,12 @@ public class SVI {
 
     /**
      * @see "equations at the top of - p. 8"
+     * @see SviJumpWings#toRaw(SviJumpWings.JumpWings, SviJumpWings.Raw) which stays finite as alpha goes to 0.
      */
     public static double getM_JW(double vT, double vTMin, double t, double b_jw,
                                  double p_jw, double alpha) {
 
-        return ((vT * vTMin) * t) / (b_jw * (-p_jw + (Math.signum(alpha) * Math.sqrt(alpha)) - (alpha * Math.sqrt(1 - p_jw * p_jw))));
+        return ((vT - vTMin) * t) / (b_jw * (-p_jw + (Math.signum(alpha) * Math.sqrt(1 + alpha * alpha)) - (alpha * Math.sqrt(1 - p_jw * p_jw))));
 
     }
 
@@ -307,44 +479,183 @@ public class SVI {
             return 1d;
         }
 
-        SVI svi = new SVI(closestData);
-        svi.optimize();
-
-        double w_i = svi.calculateSVI(currentStrike);
-        double iv = getIVFromWT(w_i, getT(closestData));
+        // Calibrates once per slice rather than once per strike.
+        SviSlice slice = SviSlice.of(closestData);
+        double iv = slice.getIV(currentStrike);
 
         if (debug) {
             System.err.println("Calculating SVI for: datetime: " + closestData[0].getDate() + "  strike: " + currentStrike + "  IV: " + iv);
         }
 
 
-        OptionData.setSVIValues(closestData, svi.a, svi.b, svi.p, svi.m, svi.sigma);
+        slice.setSVIValues(closestData);
 
         return iv;
 
     }
 
     public static void calculateSVIParams(OptionData[] data) {
+        calculateSVIParams(data, false);
+    }
+
+    public static void calculateSVIParams(OptionData[] data, CalibrationMode mode) {
+        calculateSVIParams(data, mode, null);
+    }
+
+    /**
+     * Calibrate every expiry in the chain.
+     *
+     * @param parallel - true to calibrate the expiries concurrently on the common fork-join pool, false to calibrate them one after another.
+     */
+    public static void calculateSVIParams(OptionData[] data, boolean parallel) {
+
+        calculateSVIParams(data, CalibrationMode.STAGED, parallel ? ForkJoinPool.commonPool() : null);
+
+    }
+
+    public static void calculateSVIParams(OptionData[] data, ExecutorService executor) {
+        calculateSVIParams(data, CalibrationMode.STAGED, executor);
+    }
+
+    /**
+     * Calibrate every expiry in the chain concurrently on the supplied executor.
+     * <p>
+     * The expiries are independent so each one is calibrated as its own task. The results are written back
+     * on the calling thread in DTE order so the output is identical to the sequential calibration.
+     *
+     * @param executor - the executor to calibrate on or null to calibrate the expiries one after another.
+     */
+    public static void calculateSVIParams(OptionData[] data, CalibrationMode mode, ExecutorService executor) {
+        calculateSVIParams(data, mode, null, executor);
+    }
+
+    /**
+     * Calibrate every expiry in the chain starting each slice from its previously accepted parameters when cached.
+     *
+     * @param paramCache - the warm start cache which is updated with the accepted parameters or null for a cold start.
+     * @param executor   - the executor to calibrate on or null to calibrate the expiries one after another.
+     */
+    public static void calculateSVIParams(OptionData[] data, CalibrationMode mode, SviParamCache paramCache, ExecutorService executor) {
+        calculateSVIParams(data, mode, CalibrationStrategy.POWELL, paramCache, executor);
+    }
+
+    /**
+     * Calibrate every expiry in the chain with the given strategy.
+     *
+     * @param strategy   - minimizes each stage of a {@link CalibrationMode#STAGED} calibration.
+     * @param paramCache - the warm start cache which is updated with the accepted parameters or null for a cold start.
+     * @param executor   - the executor to calibrate on or null to calibrate the expiries one after another.
+     */
+    public static void calculateSVIParams(OptionData[] data, CalibrationMode mode, CalibrationStrategy strategy,
+                                          SviParamCache paramCache, ExecutorService executor) {
+        calculateSVIParams(data, CalibrationPlan.forMode(mode), strategy, paramCache, executor);
+    }
+
+    /**
+     * Calibrate every expiry in the chain with the given plan.
+     *
+     * @param plan       - the stages to run, e.g. {@link CalibrationPlan#intraday()} for a quick refresh.
+     * @param strategy   - minimizes the quasi and raw stages of the plan.
+     * @param paramCache - the warm start cache which is updated with the accepted parameters or null for a cold start.
+     * @param executor   - the executor to calibrate on or null to calibrate the expiries one after another.
+     */
+    public static void calculateSVIParams(OptionData[] data, CalibrationPlan plan, CalibrationStrategy strategy,
+                                          SviParamCache paramCache, ExecutorService executor) {
+
+        if (executor == null) {
+            calculateSVIParamsSequentially(data, plan, strategy, paramCache);
+            return;
+        }
 
         List<Double> dtes = OptionData.getDtes(data);
 
-        for (double dte : dtes) {
+        List<OptionData[]> slices = new ArrayList<>(dtes.size());
+        List<Future<SVI>> futures = new ArrayList<>(dtes.size());
 
+        for (double dte : dtes) {
             OptionData[] dteData = OptionData.getOptionsByDte(data, dte);
-            SVI svi = new SVI(dteData);
+            slices.add(dteData);
+            futures.add(executor.submit(() -> calibrate(dteData, plan, strategy, paramCache)));
+        }
 
-            try {
-                svi.optimize();
-                OptionData.setSVIValues(dteData, svi.a, svi.b, svi.p, svi.m, svi.sigma);
-            } catch (IllegalStateException e) {
-                // There likely wasn't enough data to do the calculations.
-                e.printStackTrace();
+        for (int i = 0; i < futures.size(); i++) {
 
+            SVI svi = getCalibrated(futures.get(i));
+
+            if (svi != null) {
+                OptionData.setSVIValues(slices.get(i), svi.a, svi.b, svi.p, svi.m, svi.sigma);
             }
         }
 
     }
 
+    private static void calculateSVIParamsSequentially(OptionData[] data, CalibrationPlan plan, CalibrationStrategy strategy,
+                                                       SviParamCache paramCache) {
+
+        List<Double> dtes = OptionData.getDtes(data);
+
+        for (double dte : dtes) {
+
+            OptionData[] dteData = OptionData.getOptionsByDte(data, dte);
+            calculateSliceSVIParams(dteData, plan, strategy, paramCache);
+        }
+
+    }
+
+    /**
+     * Calibrate a single expiry slice.
+     *
+     * @param dteData - the options of one root and expiry.
+     * @return true if the slice was calibrated.
+     */
+    public static boolean calculateSliceSVIParams(OptionData[] dteData, CalibrationPlan plan, CalibrationStrategy strategy,
+                                                  SviParamCache paramCache) {
+
+        SVI svi = calibrate(dteData, plan, strategy, paramCache);
+
+        if (svi == null) {
+            return false;
+        }
+
+        OptionData.setSVIValues(dteData, svi.a, svi.b, svi.p, svi.m, svi.sigma);
+        return true;
+
+    }
+
+    /**
+     * @return the optimized SVI or null if the slice could not be calibrated.
+     */
+    private static SVI calibrate(OptionData[] dteData, CalibrationPlan plan, CalibrationStrategy strategy, SviParamCache paramCache) {
+
+        SVI svi = new SVI(dteData);
+        svi.setCalibrationPlan(plan);
+        svi.setCalibrationStrategy(strategy);
+        svi.setParamCache(paramCache);
+
+        try {
+            svi.optimize();
+            return svi;
+        } catch (IllegalStateException e) {
+            // There likely wasn't enough data to do the calculations.
+            e.printStackTrace();
+            return null;
+        }
+
+    }
+
+    private static SVI getCalibrated(Future<SVI> future) {
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while calibrating SVI", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("SVI calibration failed", e.getCause());
+        }
+
+    }
+
     public static OptionData createOptionDataFromSviParams(OptionData[] data, double currentStrike) {
 
         double impliedVolatility = calculateIV(data, currentStrike);
@@ -419,7 +730,7 @@ public class SVI {
     /**
      * @see "p 5 of Quasi-Explicit Calibration of Gatheral's SVI model"
      */
-    public double calculateQuasiSVI_CDA(double a, double b, double p, double k, double m, double sigma, double t) {
+    public static double calculateQuasiSVI_CDA(double a, double b, double p, double k, double m, double sigma, double t) {
 
         double a_t = getQuasiSVI_AT(a, t);
         double c = getQuasiSVI_C(b, sigma, t);
@@ -456,6 +767,24 @@ public class SVI {
 
     }
 
+    /**
+     * @param strikes - the real strikes.
+     * @param w_t     - receives the total variance at each strike.
+     */
+    public void calculateSVI(double[] strikes, double[] w_t) {
+
+        double t = getT();
+        double currentValue = getCurrentValue();
+
+        for (int i = 0; i < strikes.length; i++) {
+            w_t[i] = OptionData.getLogStrike(strikes[i], currentValue);
+        }
+
+        // We need to convert to Raw parameters: so we multiply a & b by t.
+        calculateSVI(a * t, b * t, p, m, sigma, t, w_t, w_t);
+
+    }
+
     public double getT() {
         return getT(data);
     }
@@ -474,21 +803,30 @@ public class SVI {
         return OptionData.getLogStrike(item);
     }
 
-    private void optimizeQuasiSVI(MultivariateOptimizer optimizer, double[] initParams, double[] startParams, boolean ssr) {
+    /**
+     * @return the number of evaluations.
+     */
+    private long optimizeQuasiSVI(double[] initParams, double[] startParams, boolean ssr, int maxEvaluations) {
 
         MinimizerQuasiSVI functQuasi = new MinimizerQuasiSVI(data, initParams, ssr);
-        optimizeSVI(functQuasi, optimizer, initParams, startParams);
+        return optimizeSVI(functQuasi, startParams, maxEvaluations);
 
     }
 
-    private void optimizeRawSVI(MultivariateOptimizer optimizer, double[] initParams, double[] startParams, boolean ssr) {
+    /**
+     * @return the number of evaluations.
+     */
+    private long optimizeRawSVI(double[] initParams, double[] startParams, boolean ssr, int maxEvaluations) {
 
         MinimizerSVI functSVI = new MinimizerRawSVI(data, initParams, ssr);
-        optimizeSVI(functSVI, optimizer, initParams, startParams);
+        return optimizeSVI(functSVI, startParams, maxEvaluations);
 
     }
 
-    private void optimizeJWSVI(MultivariateOptimizer optimizer, double[] initParams, boolean ssr) {
+    /**
+     * @return the number of evaluations.
+     */
+    private long optimizeJWSVI(double[] initParams, boolean ssr, int maxEvaluations) {
 
         MinimizerSVIJW functSVI = new MinimizerSVIJW(data, initParams, ssr);
 
@@ -499,13 +837,38 @@ public class SVI {
         double ctPrime = getCTPrime(p_t, phi_t);
         double vMinTPrime = getVMinTPrime(p_t, v_t, ctPrime);
 
-        optimizeSVI(functSVI, optimizer, initParams, new double[]{ctPrime, vMinTPrime});
+        minimize(functSVI, new double[]{ctPrime, vMinTPrime}, maxEvaluations);
+
+        // The SSR is private to MinimizerSVI.
+        double jwSSR = ((MinimizerSVI) functSVI).ssr;
+
+        if (this.ssr > jwSSR) {
+
+            this.ssr = jwSSR;
+
+            // The best point is in JW terms so it is mapped back to raw.
+            double[] raw = new double[5];
+            functSVI.toRaw(functSVI.minParams, raw);
+
+            a = raw[0];
+            b = raw[1];
+            p = raw[2];
+            m = raw[3];
+            sigma = raw[4];
+
+        }
+
+        return functSVI.getEvaluations();
 
     }
 
-    private void optimizeSVI(MinimizerSVI functSVI, MultivariateOptimizer optimizer, double[] initParams, double[] startParams) {
+    /**
+     * @return the number of evaluations.
+     */
+    private long optimizeSVI(MinimizerSVI functSVI, double[] startParams, int maxEvaluations) {
+
+        minimize(functSVI, startParams, maxEvaluations);
 
-        PointValuePair pointValue = optimizer.optimize(2000, functSVI, GoalType.MINIMIZE, startParams);
         double[] param = functSVI.minParams;
         double ssr = functSVI.ssr;
 
@@ -525,48 +888,359 @@ public class SVI {
 
         }
 
+        return functSVI.getEvaluations();
+
+    }
+
+    private void minimize(MinimizerSVI functSVI, double[] startParams, int maxEvaluations) {
+
+        if (hasDeadline) {
+            functSVI.setDeadline(deadlineNanos);
+        }
+
+        try {
+            strategy.minimize(functSVI, startParams, maxEvaluations);
+        } catch (TooManyEvaluationsException e) {
+            // Keep the best point found within the budget rather than losing the slice.
+        } catch (DeadlineExceededException e) {
+            deadlineExceeded = true;
+        }
+
+    }
+
+    /**
+     * Calibrate the slice with the {@link CalibrationPlan}.
+     *
+     * @see #getStageResults()
+     */
+    public void optimize() {
+
+        stageResults = new ArrayList<>();
+        startParams = null;
+        deadlineExceeded = false;
+
+        CalibrationPlan.Stage warmStart = plan.getWarmStartStage();
+        if (paramCache != null && warmStart != null) {
+
+            double[] cached = new double[5];
+            if (paramCache.get(data, cached)) {
+
+                // The cached parameters are the best so far.
+                a = cached[0];
+                b = cached[1];
+                p = cached[2];
+                m = cached[3];
+                sigma = cached[4];
+
+                if (runStage(warmStart, -1)) {
+                    cacheParams();
+                    return;
+                }
+            }
+        }
+
+        List<CalibrationPlan.Stage> stages = plan.getStages();
+        for (int i = 0; i < stages.size(); i++) {
+
+            if (isPastDeadline()) {
+                deadlineExceeded = true;
+                break;
+            }
+
+            if (runStage(stages.get(i), i)) {
+                break;
+            }
+        }
+
+        cacheParams();
+
+    }
+
+    private void cacheParams() {
+        if (paramCache != null && isCalibrated()) {
+            paramCache.put(data, a, b, p, m, sigma);
+        }
+    }
+
+    /**
+     * Records the stage in {@link CalibrationMetrics#global()} and as a {@link CalibrationStageEvent}.
+     *
+     * @param stageIndex - the position of the stage in the plan or -1 for the warm start.
+     * @return true if the calibration should end after this stage.
+     */
+    private boolean runStage(CalibrationPlan.Stage stage, int stageIndex) {
+
+        CalibrationStageEvent event = new CalibrationStageEvent();
+        event.begin();
+
+        long start = System.nanoTime();
+        long evaluations;
+
+        switch (stage.getKind()) {
+            case QUASI_EXPLICIT:
+                evaluations = optimizeQuasiExplicitSVI(stage);
+                break;
+            case JW:
+                evaluations = optimizeJWSVI(new double[]{a, b, p, m, sigma}, stage.isCalcSSR(), stage.getMaxEvaluations());
+                break;
+            default:
+                evaluations = optimizeStage(stage);
+                break;
+        }
+
+        long nanos = System.nanoTime() - start;
+        stageResults.add(new CalibrationPlan.StageResult(stage, evaluations, nanos, ssr));
+        CalibrationMetrics.global().record(stage.getKind(), evaluations, nanos);
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.root = OptionData.getOptionRoot(data[0]);
+            event.dte = getDTE();
+            event.stage = stage.getKind().name();
+            event.stageIndex = stageIndex;
+            event.evaluations = evaluations;
+            event.ssr = ssr;
+            event.strikes = data.length;
+            event.deadlineExceeded = deadlineExceeded;
+            event.commit();
+        }
+
+        return stage.isExit(ssr, data.length) || deadlineExceeded;
+
+    }
+
+    private boolean isPastDeadline() {
+        return hasDeadline && System.nanoTime() - deadlineNanos > 0;
+    }
+
+    /**
+     * @return the number of evaluations.
+     */
+    private long optimizeStage(CalibrationPlan.Stage stage) {
+
+        double[] best = {a, b, p, m, sigma};
+        double[] initParams = new double[5];
+        double[] free = new double[5];
+        int numFree = 0;
+
+        for (int i = 0; i < 5; i++) {
+
+            CalibrationPlan.Param param = stage.getParam(i);
+            double value = param.resolve(getStartParam(param, i), best[i]);
+
+            if (param.isFree()) {
+                // NaN marks the parameter as being optimized.
+                initParams[i] = Double.NaN;
+                free[numFree++] = value;
+            } else {
+                initParams[i] = value;
+            }
+        }
+
+        double[] startParams = Arrays.copyOf(free, numFree);
+
+        if (stage.getKind() == CalibrationPlan.Kind.RAW) {
+            return optimizeRawSVI(initParams, startParams, stage.isCalcSSR(), stage.getMaxEvaluations());
+        }
+
+        return optimizeQuasiSVI(initParams, startParams, stage.isCalcSSR(), stage.getMaxEvaluations());
+
     }
 
-    private void optimize() {
+    private double getStartParam(CalibrationPlan.Param param, int idx) {
 
-        // We don't want to be off by more than .01 IV points where IV is between (0, 1] so
-        // the Sum of Squared Residuals would be .01*.01=.0001
-        // We use the Powell Method because it is more robust than Nelder-Mead.
-        MultivariateOptimizer powell = new PowellOptimizer(.00001d, .00001d);
+        if (param.getSource() != CalibrationPlan.Source.START) {
+            return Double.NaN;
+        }
 
+        if (startParams == null) {
 
-        double aStart = getWTFromIV(getAtmIV(), getT()) / 2d;
-        double bStart = .25;
-        double pStart = 0;
+            double aStart = getWTFromIV(getAtmIV(), getT()) / 2d;
+            double bStart = .25;
+            double pStart = 0;
 
-        double mStart = getMinimumIVLogStrike() / 2d;
-        double sigmaStart = getWTFromIV(getAtmIV(), getT()) / 2d;
+            double mStart = getMinimumIVLogStrike() / 2d;
+            double sigmaStart = getWTFromIV(getAtmIV(), getT()) / 2d;
+
+            // See Quasi-Explicit... or
+            // See Issues of Nelder-Mead Simplex Optimization with Constraints by Floc'h
+            if (sigmaStart < .005d) {
+                sigmaStart = .005d;
+            }
 
-        // See Quasi-Explicit... or
-        // See Issues of Nelder-Mead Simplex Optimization with Constraints by Floc'h
-        if (sigmaStart < .005d) {
-            sigmaStart = .005d;
+            startParams = new double[]{aStart, bStart, pStart, mStart, sigmaStart};
         }
 
-        optimizeQuasiSVI(powell, new double[]{aStart, bStart, Double.NaN, mStart, sigmaStart}, new double[]{pStart}, false);
-        optimizeQuasiSVI(powell, new double[]{Double.NaN, Double.NaN, Double.NaN, mStart, sigmaStart}, new double[]{aStart, bStart, p}, true);
+        return startParams[idx];
 
-        double minMStart = mStart * 2;
-        optimizeQuasiSVI(powell, new double[]{a, b, p, Double.NaN, Double.NaN}, new double[]{minMStart, sigmaStart}, true);
-        optimizeQuasiSVI(powell, new double[]{Double.NaN, b, Double.NaN, mStart, sigmaStart}, new double[]{a, p}, true);
+    }
+
+    /**
+     * Starting m from {@link CalibrationPlan.Source#START} searches from the best point of a grid.
+     *
+     * @return the number of evaluations.
+     */
+    private long optimizeQuasiExplicitSVI(CalibrationPlan.Stage stage) {
+
+        QuasiExplicitSVI quasi = new QuasiExplicitSVI(data);
+        quasi.setMaxEvaluations(stage.getMaxEvaluations());
+        if (hasDeadline) {
+            quasi.setDeadline(deadlineNanos);
+        }
 
-        // There aren't any parameters that we hold constant so the initial parameters array is empty.
-        optimizeRawSVI(powell, new double[]{Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN}, new double[]{a, b, p, m, sigma}, true);
+        CalibrationPlan.Param mParam = stage.getParam(3);
+        CalibrationPlan.Param sigmaParam = stage.getParam(4);
 
-        optimizeJWSVI(powell, new double[]{a, b, p, m, sigma}, true);
+        if (mParam.getSource() == CalibrationPlan.Source.START) {
+            quasi.calibrate();
+        } else {
+            quasi.calibrate(mParam.resolve(Double.NaN, m), sigmaParam.resolve(getStartParam(sigmaParam, 4), sigma));
+        }
 
+        if (quasi.isDeadlineExceeded()) {
+            deadlineExceeded = true;
+        }
+
+        double ssr = quasi.getSSR();
+        if (this.ssr <= ssr) {
+            return quasi.getEvaluations();
+        }
+
+        this.ssr = ssr;
+        a = quasi.getA();
+        b = quasi.getB();
+        p = quasi.getP();
+        m = quasi.getM();
+        sigma = quasi.getSigma();
+
+        if (debug) {
+            System.out.println(" Date: " + data[0].getDate() + "  DTE: " + getDTE() + " Quasi-Explicit evaluations: " + quasi.getEvaluations() + " SSR: " + ssr);
+        }
+
+        return quasi.getEvaluations();
+
+    }
+
+    public SviParamCache getParamCache() {
+        return paramCache;
+    }
+
+    /**
+     * @param paramCache - warm start from and update this cache when calibrating or null for a cold start.
+     */
+    public void setParamCache(SviParamCache paramCache) {
+        this.paramCache = paramCache;
+    }
+
+    /**
+     * Stop calibrating once the deadline has passed keeping the best parameters found so far.
+     *
+     * @param deadlineNanos - a {@link System#nanoTime()} value.
+     */
+    public void setDeadline(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+        this.hasDeadline = true;
+    }
+
+    public void clearDeadline() {
+        this.hasDeadline = false;
+    }
+
+    /**
+     * @return true if the last calibration was cut short by the deadline.
+     */
+    public boolean isDeadlineExceeded() {
+        return deadlineExceeded;
+    }
+
+    /**
+     * @return true if the last calibration accepted any parameters.
+     */
+    public boolean isCalibrated() {
+        return ssr != Double.MAX_VALUE && !Double.isNaN(ssr);
+    }
+
+    /**
+     * @return the SVI a expressed per year as stored on OptionData.
+     */
+    public double getA() {
+        return a;
+    }
+
+    /**
+     * @return the SVI b expressed per year as stored on OptionData.
+     */
+    public double getB() {
+        return b;
+    }
+
+    public double getP() {
+        return p;
+    }
+
+    public double getM() {
+        return m;
+    }
+
+    public double getSigma() {
+        return sigma;
+    }
+
+    /**
+     * @return the sum of squared IV residuals of the calibrated slice.
+     */
+    public double getSSR() {
+        return ssr;
+    }
+
+    public CalibrationPlan getCalibrationPlan() {
+        return plan;
+    }
+
+    public void setCalibrationPlan(CalibrationPlan plan) {
+        if (plan == null) {
+            throw new IllegalArgumentException("plan must not be null");
+        }
+        this.plan = plan;
+    }
+
+    /**
+     * @return the stages run by the last calibration with their wall time and evaluations.
+     */
+    public List<CalibrationPlan.StageResult> getStageResults() {
+        return stageResults;
+    }
+
+    /**
+     * @return a snapshot of the last calibration which doesn't change if this SVI is optimized again.
+     */
+    public SviFit getFit() {
+        return new SviFit(a, b, p, m, sigma, getT(), getCurrentValue(), ssr, data.length, deadlineExceeded, stageResults);
+    }
+
+    public CalibrationStrategy getCalibrationStrategy() {
+        return strategy;
+    }
+
+    /**
+     * @param strategy - minimizes each stage of a {@link CalibrationMode#STAGED} calibration.
+     */
+    public void setCalibrationStrategy(CalibrationStrategy strategy) {
+        if (strategy == null) {
+            throw new IllegalArgumentException("strategy must not be null");
+        }
+        this.strategy = strategy;
     }
 
     static class BoolHolder {
         boolean bool;
     }
 
-    public abstract class MinimizerSVI implements MultivariateFunction {
+    /**
+     * The objective of one calibration stage. It only reads the slice and its own state so a minimizer can't see
+     * or change the {@link SVI} that created it.
+     */
+    public abstract static class MinimizerSVI implements MultivariateFunction {
 
         public double minSum = Double.NaN;
         public double[] minParams;
@@ -579,8 +1253,17 @@ public class SVI {
         private boolean calcSSR = true;
         private double ssr = Double.NaN;
         private long iterations = 0;
-        private double[] logStrikes;
-        private double[] ivs;
+        private final double[] logStrikes;
+        private final double[] ivs;
+        private final double t;
+
+        private boolean hasDeadline;
+        private long deadlineNanos;
+
+        /**
+         * Reused on every evaluation.
+         */
+        private final double[] modelIVs;
 
 
         public MinimizerSVI(OptionData[] data, double[] initParams, boolean ssr) {
@@ -591,6 +1274,29 @@ public class SVI {
             this.m = initParams[3];
             this.sigma = initParams[4];
             this.calcSSR = ssr;
+
+            // Loaded once up front so that evaluating the objective does not allocate.
+            this.logStrikes = OptionData.getLogStrike(data);
+            this.ivs = OptionData.getIVs(data);
+            this.modelIVs = new double[logStrikes.length];
+            this.t = SVI.getT(data);
+        }
+
+        /**
+         * @param deadlineNanos - a {@link System#nanoTime()} value after which the objective throws
+         *                      {@link DeadlineExceededException}.
+         */
+        final void setDeadline(long deadlineNanos) {
+            this.deadlineNanos = deadlineNanos;
+            this.hasDeadline = true;
+        }
+
+        private boolean isPastDeadline() {
+            return hasDeadline && System.nanoTime() - deadlineNanos > 0;
+        }
+
+        public final double getT() {
+            return t;
         }
 
         @Override
@@ -665,34 +1371,170 @@ public class SVI {
          * @see "Quasi-Explicit Calibration of Gatheral's SVI model"
          */
         double function(double[] param) {
+            return function(param, null);
+        }
+
+        /**
+         * @param residuals - receives the model IV less the market IV for each strike or null.
+         */
+        double function(double[] param, double[] residuals) {
+
+            countEvaluation();
+
+            double a = getA(param);
+            double b = getB(param);
+            double p = getP(param);
+            double m = getM(param);
+            double sigma = getSigma(param);
+
+            return function(param, a, b, p, m, sigma, residuals);
+
+        }
+
+        /**
+         * @throws DeadlineExceededException if the deadline has passed.
+         */
+        protected final void countEvaluation() {
 
             iterations++;
 
+            if ((iterations & DEADLINE_CHECK_MASK) == 0 && isPastDeadline()) {
+                throw new DeadlineExceededException("SVI deadline exceeded after " + iterations + " evaluations");
+            }
+
+        }
+
+        /**
+         * Evaluates the objective and the residuals of each strike for least squares strategies.
+         *
+         * @param residuals - receives the model IV less the market IV for each strike.
+         * @return the objective or {@link Double#MAX_VALUE} if the parameters are outside tolerance, in which case the residuals are not set.
+         */
+        public final double residuals(double[] param, double[] residuals) {
+            return function(param, residuals);
+        }
+
+        /**
+         * The analytic derivatives of the model IVs with respect to the free parameters.
+         * <p>
+         * The model IV is sqrt(w/t) where w = a*t + b*t*(p*(k-m) + sqrt((k-m)^2 + sigma^2)) in both the raw
+         * and the quasi parameterisations so dIV = dw / (2*sqrt(w*t)).
+         *
+         * @param jacobian - receives one row per strike and one column per free parameter.
+         * @return false if there isn't an analytic Jacobian for this parameterisation.
+         */
+        public boolean jacobian(double[] param, double[][] jacobian) {
+
             double a = getA(param);
             double b = getB(param);
             double p = getP(param);
             double m = getM(param);
             double sigma = getSigma(param);
 
+            int idxA = isASet() ? -1 : getIndex(0);
+            int idxB = isBSet() ? -1 : getIndex(1);
+            int idxP = isPSet() ? -1 : getIndex(2);
+            int idxM = isMSet() ? -1 : getIndex(3);
+            int idxSigma = isSigmaSet() ? -1 : getIndex(4);
+
+            double t = getT();
+            double bt = b * t;
+            double sigmasigma = sigma * sigma;
+            double[] ks = logStrikes;
+
+            for (int i = 0; i < ks.length; i++) {
+
+                double km = ks[i] - m;
+                double sqrt = Math.sqrt(km * km + sigmasigma);
+                double w_t = a * t + bt * (p * km + sqrt);
+
+                // dIV/dw, zero where the total variance isn't positive since the model IV isn't differentiable there.
+                double scale = w_t > 0 ? 1d / (2d * Math.sqrt(w_t * t)) : 0;
+
+                double[] row = jacobian[i];
+                if (idxA >= 0) {
+                    row[idxA] = t * scale;
+                }
+                if (idxB >= 0) {
+                    row[idxB] = t * (p * km + sqrt) * scale;
+                }
+                if (idxP >= 0) {
+                    row[idxP] = bt * km * scale;
+                }
+                if (idxM >= 0) {
+                    row[idxM] = sqrt == 0 ? -bt * p * scale : -bt * (p + km / sqrt) * scale;
+                }
+                if (idxSigma >= 0) {
+                    row[idxSigma] = sqrt == 0 ? 0 : bt * sigma / sqrt * scale;
+                }
+            }
+
+            return true;
+
+        }
+
+        public final int getNumberOfResiduals() {
+            return logStrikes.length;
+        }
+
+        public final long getEvaluations() {
+            return iterations;
+        }
+
+        /**
+         * Evaluates the fit of the model IVs to the market IVs in a single pass without allocating.
+         *
+         * @param param     - the point being evaluated, retained if it is the best point so far.
+         * @param residuals - receives the model IV less the market IV for each strike or null.
+         */
+        protected final double function(double[] param, double a, double b, double p, double m, double sigma, double[] residuals) {
+
             double t = getT();
 
             if (!parametersWithinTolerance(a, b, p, m, sigma, t)) {
                 return Double.MAX_VALUE;
             }
 
-            double[] w_ivs = getW_IVs(param);
-            double[] ivs = getIVs();
-            double ssr = SimpleStatisticsUtils.sumOfSquaredResiduals(w_ivs, ivs);
+            double[] ivs = this.ivs;
+            double[] modelIVs = this.modelIVs;
+            int n = ivs.length;
+
+            getW_IVs(a, b, p, m, sigma, t, modelIVs);
+
+            // The residual mean and variance are accumulated with Welford's method
+            // so the standard error doesn't need a residual array.
+            double ssr = 0;
+            double mean = 0;
+            double m2 = 0;
+
+            for (int i = 0; i < n; i++) {
+
+                double residual = modelIVs[i] - ivs[i];
+                ssr += residual * residual;
+                if (residuals != null) {
+                    residuals[i] = residual;
+                }
+
+                double delta = residual - mean;
+                mean += delta / (i + 1);
+                m2 += delta * (residual - mean);
+
+            }
+
             double sum = ssr;
             if (!calcSSR) {
-                sum = SimpleStatisticsUtils.getStandardErrorOfResiduals(w_ivs, ivs);
+                // The standard error of the mean of the residuals.
+                sum = Math.sqrt(m2 / (n - 1)) / Math.sqrt(n);
             }
 
             if (!Double.isNaN(sum)) {
                 if (Double.isNaN(minSum) || sum < minSum) {
                     this.ssr = ssr;
                     minSum = sum;
-                    minParams = Arrays.copyOf(param, param.length);
+                    if (minParams == null || minParams.length != param.length) {
+                        minParams = new double[param.length];
+                    }
+                    System.arraycopy(param, 0, minParams, 0, param.length);
                 }
             }
 
@@ -700,20 +1542,56 @@ public class SVI {
 
         }
 
-        protected abstract double[] getW_IVs(double[] param);
+        /**
+         * @param k - the log-strike.
+         * @return the model IV at the log-strike.
+         */
+        protected abstract double getW_IV(double a, double b, double p, double m, double sigma, double t, double k);
 
+        /**
+         * The model IV at every log-strike for parameters that are within tolerance.
+         *
+         * @param w_ivs - receives the model IVs.
+         */
+        protected void getW_IVs(double a, double b, double p, double m, double sigma, double t, double[] w_ivs) {
 
-        public double[] getLogStrikes() {
-            if (logStrikes == null) {
-                logStrikes = OptionData.getLogStrike(data);
+            calculateSVIWithinTolerance(a * t, b * t, p, m, sigma, logStrikes, w_ivs, logStrikes.length);
+
+            for (int i = 0; i < w_ivs.length; i++) {
+                w_ivs[i] = getIVFromWT(w_ivs[i], t);
             }
+
+        }
+
+        /**
+         * Allocates the model IVs for each strike. Use {@link #function(double[])} when optimizing.
+         */
+        protected final double[] getW_IVs(double[] param) {
+
+            double a = getA(param);
+            double b = getB(param);
+            double p = getP(param);
+            double m = getM(param);
+            double sigma = getSigma(param);
+
+            double t = getT();
+            double[] ks = getLogStrikes();
+            double[] w_ivs = new double[ks.length];
+
+            for (int i = 0; i < ks.length; i++) {
+                w_ivs[i] = getW_IV(a, b, p, m, sigma, t, ks[i]);
+            }
+
+            return w_ivs;
+
+        }
+
+
+        public double[] getLogStrikes() {
             return logStrikes;
         }
 
         public double[] getIVs() {
-            if (ivs == null) {
-                ivs = OptionData.getIVs(data);
-            }
             return ivs;
         }
 
@@ -800,81 +1678,93 @@ public class SVI {
 
     }
 
-    public class MinimizerQuasiSVI extends MinimizerSVI {
+    public static class MinimizerQuasiSVI extends MinimizerSVI {
 
         public MinimizerQuasiSVI(OptionData[] data, double[] initParams, boolean ssr) {
             super(data, initParams, ssr);
         }
 
         @Override
-        protected double[] getW_IVs(double[] param) {
+        protected double getW_IV(double a, double b, double p, double m, double sigma, double t, double k) {
 
-            double a = getA(param);
-            double b = getB(param);
-            double p = getP(param);
-            double m = getM(param);
-            double sigma = getSigma(param);
+            double w_i = calculateQuasiSVI_CDA(a, b, p, k, m, sigma, t);
 
-            double t = getT();
+            // The quasi parameterisation is the raw SVI rearranged so the two should always agree.
+            assert isRawSVI(w_i, a, b, p, k, m, sigma, t) : "quasi SVI != raw SVI";
+
+            return getIVFromWT(w_i, t);
+
+        }
+
+        /**
+         * The same arithmetic as {@link #calculateQuasiSVI_CDA(double, double, double, double, double, double, double)}
+         * with the loop invariants hoisted so the loop vectorises.
+         */
+        @Override
+        protected void getW_IVs(double a, double b, double p, double m, double sigma, double t, double[] w_ivs) {
+
+            double a_t = getQuasiSVI_AT(a, t);
+            double c = getQuasiSVI_C(b, sigma, t);
+            double d = getQuasiSVI_D(p, b, sigma, t);
 
             double[] ks = getLogStrikes();
-            double[] w_ivs = new double[data.length];
 
-            for (int i = 0; i < data.length; i++) {
+            for (int i = 0; i < w_ivs.length; i++) {
+                double y = (ks[i] - m) / sigma;
+                w_ivs[i] = getIVFromWT(a_t + d * y + c * Math.sqrt(y * y + 1), t);
+            }
 
-                double w_i = calculateQuasiSVI_CDA(a, b, p, ks[i], m, sigma, t);
-                double w_i_svi = calculateSVI(a * t, b * t, p, ks[i], m, sigma, sigma * sigma, t);
+            assert isRawSVI(a, b, p, m, sigma, t, w_ivs) : "quasi SVI != raw SVI";
 
-                if (w_i_svi != Double.MAX_VALUE) {
-                    double w_i_svi_diff = Math.abs(w_i - w_i_svi);
-                    if (w_i_svi_diff > .0001d) {
-                        throw new IllegalStateException();
-                    }
-                }
+        }
 
-                w_ivs[i] = getIVFromWT(w_i, t);
+        private boolean isRawSVI(double a, double b, double p, double m, double sigma, double t, double[] w_ivs) {
 
+            double[] ks = getLogStrikes();
+            for (int i = 0; i < w_ivs.length; i++) {
+                if (!isRawSVI(getWTFromIV(w_ivs[i], t), a, b, p, ks[i], m, sigma, t)) {
+                    return false;
+                }
             }
+            return true;
 
-            return w_ivs;
+        }
 
+        private boolean isRawSVI(double w_i, double a, double b, double p, double k, double m, double sigma, double t) {
+            double w_i_svi = calculateSVI(a * t, b * t, p, k, m, sigma, sigma * sigma, t);
+            return w_i_svi == Double.MAX_VALUE || Math.abs(w_i - w_i_svi) <= .0001d;
         }
 
 
     }
 
-    public class MinimizerRawSVI extends MinimizerSVI {
+    public static class MinimizerRawSVI extends MinimizerSVI {
 
         public MinimizerRawSVI(OptionData[] data, double[] initParams, boolean ssr) {
             super(data, initParams, ssr);
         }
 
         @Override
-        protected double[] getW_IVs(double[] params) {
-
-            double t = getT();
-            double[] ks = getLogStrikes();
+        protected double getW_IV(double a, double b, double p, double m, double sigma, double t, double k) {
 
-            double[] w_ivs = new double[data.length];
+            double w_i = calculateSVI(a * t, b * t, p, k, m, sigma, sigma * sigma, t);
+            return getIVFromWT(w_i, t);
 
-            double sigmasigma = sigma * sigma;
-            for (int i = 0; i < data.length; i++) {
-
-                double w_i = calculateSVI(a * t, b * t, p, ks[i], m, sigma, sigmasigma, t);
-                w_ivs[i] = getIVFromWT(w_i, t);
-
-            }
-
-            return w_ivs;
         }
 
 
     }
 
-    public class MinimizerSVIJW extends MinimizerRawSVI {
+    public static class MinimizerSVIJW extends MinimizerRawSVI {
 
         private double[] initParams;
 
+        /**
+         * Reused on every evaluation.
+         */
+        private final SviJumpWings.JumpWings jw = new SviJumpWings.JumpWings(1);
+        private final SviJumpWings.Raw raw = new SviJumpWings.Raw(1);
+
         private double phiT = Double.NaN;
         private double vT = Double.NaN;
         private double pT = Double.NaN;
@@ -926,43 +1816,51 @@ public class SVI {
             return pT;
         }
 
+        /**
+         * The JW parameters are mapped back to raw so only finite differences are available.
+         */
         @Override
-        public double function(double[] param) {
-
-            // First we convert SVI raw to JW params
+        public boolean jacobian(double[] param, double[][] jacobian) {
+            return false;
+        }
 
-            double vT = getVT();
-            double phiT = getPhiT();
-            double p_t = getPT();
+        /**
+         * Only c and vMin are optimized. v, psi and p stay at the values of the starting raw parameters.
+         *
+         * @param param - c and vMin.
+         * @param raw   - receives a, b, p, m and sigma with a and b per year.
+         */
+        void toRaw(double[] param, double[] raw) {
 
-            // Now we use the new JW params we need to optimize!
-            double c_t = param[0];
-            double vTMin = param[1];
+            SviJumpWings.toRaw(setJumpWings(param), this.raw);
 
-            double t = getT();
+            raw[0] = this.raw.getA()[0];
+            raw[1] = this.raw.getB()[0];
+            raw[2] = this.raw.getP()[0];
+            raw[3] = this.raw.getM()[0];
+            raw[4] = this.raw.getSigma()[0];
 
-            // Now we convert back to the original raw params for calculation!
-            double w_t = getWT();
-            double b_jw = getB_JW(w_t, c_t, p_t);
-            double p_jw = getP_JW(w_t, b_jw, p_t);
+        }
 
-            double alpha = getAlpha(p_jw, phiT, w_t, b_jw);
+        /**
+         * The raw objective of the raw parameters the JW parameters map to. The raw parameters of the base class are
+         * all fixed, so they can't be passed through {@link #getA(double[])} and the like.
+         */
+        @Override
+        double function(double[] param, double[] residuals) {
 
-            double m_jw = getM_JW(vT, vTMin, t, b_jw, p_jw, alpha);
-            double sigma_jw = getSigma_JW(alpha, m_jw);
-            double aJW = getA_JW(vTMin, b_jw, p_jw, sigma_jw, t);
+            countEvaluation();
 
-            double[] paramRaw = new double[5];
+            SviJumpWings.toRaw(setJumpWings(param), raw);
 
-            paramRaw[0] = aJW;
-            paramRaw[1] = b_jw;
-            paramRaw[2] = p_jw;
-            paramRaw[3] = m_jw;
-            paramRaw[4] = sigma_jw;
+            return function(param, raw.getA()[0], raw.getB()[0], raw.getP()[0], raw.getM()[0], raw.getSigma()[0],
+                    residuals);
 
-            // Optimize using the raw Equation!
-            return super.function(paramRaw);
+        }
 
+        private SviJumpWings.JumpWings setJumpWings(double[] param) {
+            jw.set(0, getVT(), getPhiT(), getPT(), param[0], param[1], getT());
+            return jw;
         }
 
     }
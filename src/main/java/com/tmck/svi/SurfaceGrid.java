@@ -0,0 +1,243 @@
+package com.tmck.svi;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.tmck.svi.valueobjs.OptionData;
+
+
+/**
+ * An immutable dense grid of SVI total variance over (log-moneyness, expiry) built from calibrated slices.
+ * <p>
+ * {@link SVI#calculateVI(OptionData, double, double)} reads the five parameters from the OptionData map and
+ * evaluates the SVI on every call. The grid evaluates each slice once when it is built so a lookup is a bilinear
+ * interpolation that takes constant time and doesn't allocate:
+ * <ul>
+ * <li>the log-moneyness axis is uniform so its cell is found by a division.</li>
+ * <li>the expiry axis is found through a table of uniform time buckets no wider than the smallest gap between expiries.</li>
+ * </ul>
+ * Between expiries the total variance is interpolated linearly in time at fixed log-moneyness. Before the first
+ * and after the last expiry the IV is held flat. Outside the log-moneyness range the edge of the grid is used.
+ * <p>
+ * A grid is safe to share between threads.
+ *
+ * @author GuestMeNot
+ */
+public final class SurfaceGrid {
+
+    public static final double DEFAULT_MIN_LOG_STRIKE = -1d;
+    public static final double DEFAULT_MAX_LOG_STRIKE = 1d;
+    public static final int DEFAULT_LOG_STRIKES = 401;
+
+    /**
+     * Bounds the expiry lookup table when two expiries are very close together.
+     */
+    private static final int MAX_EXPIRY_BUCKETS = 1 << 16;
+
+    private final double minK;
+    private final double dk;
+    private final int numK;
+
+    private final double[] ts;
+
+    /**
+     * The total variance of expiry j at log-moneyness i is at j * numK + i.
+     */
+    private final double[] w;
+
+    private final double bucketWidth;
+    private final int[] expiryByBucket;
+
+    private SurfaceGrid(double minK, double dk, int numK, double[] ts, double[] w) {
+
+        this.minK = minK;
+        this.dk = dk;
+        this.numK = numK;
+        this.ts = ts;
+        this.w = w;
+
+        double minGap = Double.MAX_VALUE;
+        for (int j = 1; j < ts.length; j++) {
+            minGap = Math.min(minGap, ts[j] - ts[j - 1]);
+        }
+
+        double tMax = ts[ts.length - 1];
+        int buckets = ts.length < 2 ? 1 : (int) Math.min(MAX_EXPIRY_BUCKETS, Math.ceil(tMax / minGap) + 1);
+        bucketWidth = tMax / buckets;
+        expiryByBucket = new int[buckets + 1];
+
+        // The last expiry before the start of each bucket.
+        int j = 0;
+        for (int bucket = 0; bucket <= buckets; bucket++) {
+            double t = bucket * bucketWidth;
+            while (j < ts.length - 2 && ts[j + 1] <= t) {
+                j++;
+            }
+            expiryByBucket[bucket] = j;
+        }
+
+    }
+
+    public static SurfaceGrid build(OptionData[] data) {
+        return build(data, DEFAULT_MIN_LOG_STRIKE, DEFAULT_MAX_LOG_STRIKE, DEFAULT_LOG_STRIKES);
+    }
+
+    /**
+     * @param data - the options of every expiry of one root. Expiries without SVI parameters are skipped.
+     */
+    public static SurfaceGrid build(OptionData[] data, double minLogStrike, double maxLogStrike, int logStrikes) {
+
+        if (logStrikes < 2 || !(maxLogStrike > minLogStrike)) {
+            throw new IllegalArgumentException("The grid needs at least 2 log-strikes over a positive range: ["
+                    + minLogStrike + ", " + maxLogStrike + "] x " + logStrikes);
+        }
+
+        List<Double> dtes = OptionData.getDtes(data);
+        List<OptionData> refs = new ArrayList<>(dtes.size());
+        for (double dte : dtes) {
+            OptionData ref = dtes.size() == 1 ? data[0] : OptionData.getOptionsByDte(data, dte)[0];
+            if (ref.contains(OptionData.SVI_A) && BlackScholes.getT(ref) > 0) {
+                refs.add(ref);
+            }
+        }
+
+        if (refs.isEmpty()) {
+            throw new IllegalStateException("There aren't any calibrated expiries to build the grid from");
+        }
+
+        double dk = (maxLogStrike - minLogStrike) / (logStrikes - 1);
+        double[] ks = new double[logStrikes];
+        for (int i = 0; i < logStrikes; i++) {
+            ks[i] = minLogStrike + i * dk;
+        }
+
+        double[] ts = new double[refs.size()];
+        double[] w = new double[refs.size() * logStrikes];
+        double[] row = new double[logStrikes];
+
+        for (int j = 0; j < ts.length; j++) {
+
+            OptionData ref = refs.get(j);
+            double t = BlackScholes.getT(ref);
+            ts[j] = t;
+
+            double a = ref.getValue(OptionData.SVI_A);
+            double b = ref.getValue(OptionData.SVI_B);
+            double p = ref.getValue(OptionData.SVI_P);
+            double m = ref.getValue(OptionData.SVI_M);
+            double sigma = ref.getValue(OptionData.SVI_SIGMA);
+
+            SVI.calculateSVI(a * t, b * t, p, m, sigma, t, ks, row);
+
+            for (int i = 0; i < logStrikes; i++) {
+                w[j * logStrikes + i] = row[i] == Double.MAX_VALUE ? Double.NaN : row[i];
+            }
+        }
+
+        return new SurfaceGrid(minLogStrike, dk, logStrikes, ts, w);
+
+    }
+
+    /**
+     * @param k - the log-moneyness.
+     * @param t - the time to expiry in years.
+     */
+    public double getTotalVariance(double k, double t) {
+
+        double x = (k - minK) / dk;
+        if (x < 0) {
+            x = 0;
+        } else if (x > numK - 1) {
+            x = numK - 1;
+        }
+
+        int i = Math.min((int) x, numK - 2);
+        double fk = x - i;
+
+        int last = ts.length - 1;
+
+        if (t <= ts[0]) {
+            return interpolateLogStrike(0, i, fk) * (t / ts[0]);
+        }
+
+        if (t >= ts[last]) {
+            return interpolateLogStrike(last, i, fk) * (t / ts[last]);
+        }
+
+        int j = expiryByBucket[(int) (t / bucketWidth)];
+        while (ts[j + 1] < t) {
+            j++;
+        }
+
+        double ft = (t - ts[j]) / (ts[j + 1] - ts[j]);
+        return (1 - ft) * interpolateLogStrike(j, i, fk) + ft * interpolateLogStrike(j + 1, i, fk);
+
+    }
+
+    private double interpolateLogStrike(int expiry, int i, double fk) {
+        int idx = expiry * numK + i;
+        return w[idx] + fk * (w[idx + 1] - w[idx]);
+    }
+
+    /**
+     * @param k - the log-moneyness.
+     * @param t - the time to expiry in years.
+     */
+    public double getIV(double k, double t) {
+        return SVI.getIVFromWT(getTotalVariance(k, t), t);
+    }
+
+    /**
+     * @param t - the time to expiry in years.
+     */
+    public double getIV(double strike, double currentValue, double t) {
+        return getIV(OptionData.getLogStrike(strike, currentValue), t);
+    }
+
+    /**
+     * Prices the option at the grid IV with the same conventions as
+     * {@link BlackScholes#optionPrice(boolean, double, double, double, double, double)}.
+     *
+     * @param t - the time to expiry in years.
+     * @return the price for a single option rather than a contract.
+     */
+    public double getPrice(boolean call, double currentValue, double strike, double t, double r) {
+
+        double v = getIV(strike, currentValue, t);
+
+        double vSqrtT = v * Math.sqrt(t);
+        double d1 = (BlackScholes.logStrike(currentValue, strike) + (r + v * v / 2d) * t) / vSqrtT;
+        double d2 = d1 - vSqrtT;
+
+        double price = call ? BlackScholes.callOptionPrice(currentValue, strike, t, r, d1, d2)
+                : BlackScholes.putOptionPrice(currentValue, strike, t, r, d1, d2);
+
+        // There is some rounding error that allows a price to be less than zero!
+        if (Math.abs(price) < .01d) {
+            price = 0d;
+        }
+
+        return price;
+
+    }
+
+    public double getMinLogStrike() {
+        return minK;
+    }
+
+    public double getMaxLogStrike() {
+        return minK + (numK - 1) * dk;
+    }
+
+    public int getNumLogStrikes() {
+        return numK;
+    }
+
+    /**
+     * @return the time to expiry in years of each expiry in the grid.
+     */
+    public double[] getTs() {
+        return ts.clone();
+    }
+
+}
@@ -0,0 +1,307 @@
+package com.tmck.svi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import com.tmck.svi.valueobjs.OptionData;
+
+
+/**
+ * Reprices a portfolio of options under shocks to their SVI surfaces.
+ * <p>
+ * The strike, stock price, DTE and slice of every position are read once when the engine is created so the
+ * {@link OptionData} are never cloned or modified. For each scenario the shocked parameters of every slice are
+ * derived once and then every position is repriced at its shocked SVI IV with
+ * {@link BlackScholes#optionPrice(boolean, double, double, double, double, double)}. Scenarios and chunks of
+ * positions are priced concurrently on a work-stealing pool.
+ * <p>
+ * The P&amp;L of a position is its shocked price less its price at the unshocked SVI IV, so it is only due to the
+ * shock and not to how well the slice fits the quotes. Prices are for a single option rather than a contract.
+ * <p>
+ * A shocked slice only needs its variance to be non-negative at every strike. Large falls in vol can take the raw a to
+ * 0 or below, which {@link SVI#calculateSVI(double, double, double, double, double, double, double, double)} rejects
+ * for calibration, so the smiles are evaluated here without that check. A scenario that leaves any slice with
+ * negative variance is rejected with an {@link IllegalArgumentException} rather than priced.
+ *
+ * @author GuestMeNot
+ */
+public class SurfaceScenarioEngine {
+
+    /**
+     * Enough positions that a task costs far more than scheduling it.
+     */
+    private static final int POSITIONS_PER_TASK = 2048;
+
+    private static final double ROUNDING = 1e-12;
+
+    private final ForkJoinPool pool;
+    private final double r;
+
+    private final SviJumpWings.Raw slices;
+    private final SviParamCache.Key[] keys;
+
+    // One element per position.
+    private final int[] sliceIndex;
+    private final boolean[] calls;
+    private final double[] strikes;
+    private final double[] currentValues;
+    private final double[] dtes;
+    private final double[] quantities;
+    private final double[] basePrices;
+
+    public SurfaceScenarioEngine(OptionData[] positions) {
+        this(positions, null, BlackScholes.RISK_FREE_RATE_OF_RETURN, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param positions  - every option must have SVI parameters.
+     * @param quantities - the number of options held in each position or null for one of each.
+     * @param r          - the risk free rate.
+     */
+    public SurfaceScenarioEngine(OptionData[] positions, double[] quantities, double r, ForkJoinPool pool) {
+
+        if (pool == null) {
+            throw new IllegalArgumentException("pool must not be null");
+        }
+
+        if (quantities != null && quantities.length != positions.length) {
+            throw new IllegalArgumentException("Expected " + positions.length + " quantities but there are " + quantities.length);
+        }
+
+        this.pool = pool;
+        this.r = r;
+
+        int n = positions.length;
+        sliceIndex = new int[n];
+        calls = new boolean[n];
+        strikes = new double[n];
+        currentValues = new double[n];
+        dtes = new double[n];
+        this.quantities = new double[n];
+
+        Map<SviParamCache.Key, Integer> indexByKey = new HashMap<>();
+        List<SviParamCache.Key> sliceKeys = new ArrayList<>();
+        List<OptionData> refs = new ArrayList<>();
+
+        for (int i = 0; i < n; i++) {
+
+            OptionData option = positions[i];
+            if (!option.contains(OptionData.SVI_A)) {
+                throw new IllegalArgumentException("The position doesn't have SVI parameters: " + option);
+            }
+
+            sliceIndex[i] = indexByKey.computeIfAbsent(SviParamCache.Key.of(option), k -> {
+                sliceKeys.add(k);
+                refs.add(option);
+                return refs.size() - 1;
+            });
+
+            calls[i] = option.isCall();
+            strikes[i] = option.getStrikePrice();
+            currentValues[i] = option.getCurrentStockPrice();
+            dtes[i] = option.getDte();
+            this.quantities[i] = quantities == null ? 1 : quantities[i];
+        }
+
+        keys = sliceKeys.toArray(new SviParamCache.Key[0]);
+        slices = new SviJumpWings.Raw(refs.size());
+        for (int j = 0; j < refs.size(); j++) {
+            OptionData ref = refs.get(j);
+            slices.set(j, ref.getValue(OptionData.SVI_A), ref.getValue(OptionData.SVI_B), ref.getValue(OptionData.SVI_P),
+                    ref.getValue(OptionData.SVI_M), ref.getValue(OptionData.SVI_SIGMA), BlackScholes.getT(ref));
+            if (!isValid(slices, j)) {
+                throw new IllegalArgumentException("The SVI parameters of " + keys[j] + " give a negative variance");
+            }
+        }
+
+        basePrices = new double[n];
+        price(slices, 0, n, basePrices);
+
+    }
+
+    /**
+     * @return the P&amp;L of each position under each scenario: [scenario][position].
+     * @throws IllegalArgumentException if a scenario leaves a slice with negative variance.
+     */
+    public double[][] run(List<Scenario> scenarios) {
+
+        double[][] pnl = new double[scenarios.size()][];
+        List<Callable<Void>> tasks = new ArrayList<>();
+
+        for (int s = 0; s < scenarios.size(); s++) {
+
+            SviJumpWings.Raw shocked = shock(scenarios.get(s));
+            double[] row = new double[basePrices.length];
+            pnl[s] = row;
+
+            for (int from = 0; from < row.length; from += POSITIONS_PER_TASK) {
+                int start = from;
+                int end = Math.min(row.length, from + POSITIONS_PER_TASK);
+                tasks.add(() -> {
+                    price(shocked, start, end, row);
+                    for (int i = start; i < end; i++) {
+                        row[i] = (row[i] - basePrices[i]) * quantities[i];
+                    }
+                    return null;
+                });
+            }
+        }
+
+        List<Future<Void>> futures = pool.invokeAll(tasks);
+
+        try {
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while running the scenarios", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Scenario pricing failed", e.getCause());
+        }
+
+        return pnl;
+
+    }
+
+    /**
+     * @return a copy of the slices with the shocks of the scenario applied in order.
+     */
+    private SviJumpWings.Raw shock(Scenario scenario) {
+
+        int n = slices.size();
+        SviJumpWings.Raw shocked = new SviJumpWings.Raw(n);
+        for (int j = 0; j < n; j++) {
+            shocked.set(j, slices.getA()[j], slices.getB()[j], slices.getP()[j], slices.getM()[j],
+                    slices.getSigma()[j], slices.getT()[j]);
+        }
+
+        SviJumpWings.JumpWings jw = new SviJumpWings.JumpWings(n);
+        for (SurfaceShock shock : scenario.shocks) {
+            shock.apply(shocked, jw);
+        }
+
+        for (int j = 0; j < n; j++) {
+            if (!isValid(shocked, j)) {
+                throw new IllegalArgumentException(scenario + " leaves " + keys[j] + " with a negative variance");
+            }
+        }
+
+        return shocked;
+
+    }
+
+    /**
+     * @return true if the variance of slice j is finite and non-negative at every strike. a may be 0 or less.
+     * @see "Section 2.1 of Quasi-Explicit Calibration of Gatheral's SVI model"
+     */
+    private static boolean isValid(SviJumpWings.Raw raw, int j) {
+
+        double a = raw.getA()[j];
+        double b = raw.getB()[j];
+        double p = raw.getP()[j];
+        double sigma = raw.getSigma()[j];
+
+        if (!(b >= 0) || !(sigma >= 0) || !(Math.abs(p) <= 1) || Double.isInfinite(a) || Double.isInfinite(b)
+                || Double.isInfinite(sigma) || Double.isNaN(raw.getM()[j]) || Double.isInfinite(raw.getM()[j])) {
+            return false;
+        }
+
+        // The minimum of a + b * (p * (k - m) + sqrt((k - m)^2 + sigma^2)) over k. A fall in vol to exactly 0 leaves it
+        // within rounding of 0 either side.
+        return a + b * sigma * Math.sqrt(1 - p * p) >= -ROUNDING * Math.abs(a);
+
+    }
+
+    /**
+     * @param raw    - slices that are all {@link #isValid(SviJumpWings.Raw, int)}.
+     * @param prices - receives the price of each position from start to end.
+     */
+    private void price(SviJumpWings.Raw raw, int start, int end, double[] prices) {
+
+        double[] a = raw.getA();
+        double[] b = raw.getB();
+        double[] p = raw.getP();
+        double[] m = raw.getM();
+        double[] sigma = raw.getSigma();
+        double[] ts = raw.getT();
+
+        for (int i = start; i < end; i++) {
+
+            int j = sliceIndex[i];
+            double t = ts[j];
+            double k = OptionData.getLogStrike(strikes[i], currentValues[i]);
+
+            // a & b are per year. eq. 3.1 without the check that a > 0, the slice has already been checked.
+            double km = k - m[j];
+            double w = (a[j] + b[j] * (p[j] * km + Math.sqrt(km * km + sigma[j] * sigma[j]))) * t;
+
+            double iv = SVI.getIVFromWT(Math.max(w, 0), t);
+            if (iv > BlackScholes.MAX_IV) {
+                iv = BlackScholes.MAX_IV;
+            }
+
+            if (iv > 0) {
+                prices[i] = BlackScholes.optionPrice(calls[i], currentValues[i], strikes[i], dtes[i], r, iv);
+            } else {
+                // With no variance left the option is worth its discounted intrinsic value.
+                double discountedStrike = strikes[i] * Math.exp(-r * BlackScholes.convertDteToYears(dtes[i]));
+                prices[i] = Math.max(calls[i] ? currentValues[i] - discountedStrike : discountedStrike - currentValues[i], 0);
+            }
+        }
+
+    }
+
+    /**
+     * @return the price of each position at its unshocked SVI IV.
+     */
+    public double[] getBasePrices() {
+        return basePrices.clone();
+    }
+
+    public int getNumPositions() {
+        return basePrices.length;
+    }
+
+    /**
+     * @return the number of distinct (root, expiry) slices held.
+     */
+    public int getNumSlices() {
+        return slices.size();
+    }
+
+    /**
+     * A named set of shocks applied one after another.
+     */
+    public static final class Scenario {
+
+        private final String name;
+        private final SurfaceShock[] shocks;
+
+        public Scenario(String name, SurfaceShock... shocks) {
+            this.name = name;
+            this.shocks = shocks.clone();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public List<SurfaceShock> getShocks() {
+            return Arrays.asList(shocks.clone());
+        }
+
+        @Override
+        public String toString() {
+            return name + Arrays.toString(shocks);
+        }
+    }
+
+}
@@ -0,0 +1,154 @@
+package com.tmck.svi;
+
+
+/**
+ * A shock to the SVI slices of a surface, applied to the parameters of every expiry in place.
+ * <p>
+ * Level shocks move the raw a so the ATM IV moves by the size of the shock and the shape of the smile is kept.
+ * Shape shocks are applied to the jump-wings parameters, which is how traders think about the smile, and mapped
+ * back to raw with {@link SviJumpWings}.
+ *
+ * @author GuestMeNot
+ */
+public final class SurfaceShock {
+
+    public enum Type {
+
+        /**
+         * Shift the ATM IV of every expiry by the size, e.g. .01 for one vol point.
+         */
+        PARALLEL,
+
+        /**
+         * Add the size to the JW ATM skew psi of every expiry.
+         */
+        SKEW_TILT,
+
+        /**
+         * Scale both JW wing slopes by 1 + size which raises or lowers the curvature of the smile.
+         */
+        CURVATURE,
+
+        /**
+         * Shift the ATM IV by size * (t - pivot) so expiries after the pivot move the other way to those before it.
+         */
+        TERM_TWIST
+    }
+
+    private final Type type;
+    private final double size;
+    private final double pivotT;
+
+    private SurfaceShock(Type type, double size, double pivotT) {
+        this.type = type;
+        this.size = size;
+        this.pivotT = pivotT;
+    }
+
+    /**
+     * @param volShift - the change in ATM IV, e.g. .01 for one vol point.
+     */
+    public static SurfaceShock parallel(double volShift) {
+        return new SurfaceShock(Type.PARALLEL, volShift, Double.NaN);
+    }
+
+    public static SurfaceShock skewTilt(double psiShift) {
+        return new SurfaceShock(Type.SKEW_TILT, psiShift, Double.NaN);
+    }
+
+    /**
+     * @param wingScale - the relative change of the wing slopes, e.g. .1 for 10% steeper wings.
+     */
+    public static SurfaceShock curvature(double wingScale) {
+        return new SurfaceShock(Type.CURVATURE, wingScale, Double.NaN);
+    }
+
+    /**
+     * @param volShiftPerYear - the change in ATM IV per year away from the pivot.
+     * @param pivotT          - the time to expiry in years which isn't shocked.
+     */
+    public static SurfaceShock termTwist(double volShiftPerYear, double pivotT) {
+        return new SurfaceShock(Type.TERM_TWIST, volShiftPerYear, pivotT);
+    }
+
+    /**
+     * @param jw - scratch space of the same size as raw.
+     */
+    void apply(SviJumpWings.Raw raw, SviJumpWings.JumpWings jw) {
+
+        switch (type) {
+            case PARALLEL:
+            case TERM_TWIST:
+                shiftAtmVol(raw);
+                break;
+            case SKEW_TILT:
+                SviJumpWings.toJumpWings(raw, jw);
+                double[] psi = jw.getPsi();
+                for (int i = 0; i < psi.length; i++) {
+                    psi[i] += size;
+                }
+                SviJumpWings.toRaw(jw, raw);
+                break;
+            case CURVATURE:
+                SviJumpWings.toJumpWings(raw, jw);
+                double[] p = jw.getP();
+                double[] c = jw.getC();
+                for (int i = 0; i < p.length; i++) {
+                    p[i] *= 1 + size;
+                    c[i] *= 1 + size;
+                }
+                SviJumpWings.toRaw(jw, raw);
+                break;
+            default:
+                throw new IllegalStateException("Unknown shock: " + type);
+        }
+
+    }
+
+    /**
+     * a is the only parameter that moves the smile without changing its shape. A large fall can take a to 0 or below,
+     * which is still a valid smile as long as its minimum variance isn't negative.
+     */
+    private void shiftAtmVol(SviJumpWings.Raw raw) {
+
+        double[] t = raw.getT();
+        double[] a = raw.getA();
+        double[] b = raw.getB();
+        double[] p = raw.getP();
+        double[] m = raw.getM();
+        double[] sigma = raw.getSigma();
+
+        for (int i = 0; i < a.length; i++) {
+
+            double volShift = type == Type.TERM_TWIST ? size * (t[i] - pivotT) : size;
+
+            // The ATM variance per year since a and b are per year.
+            double v = a[i] + b[i] * (-p[i] * m[i] + Math.sqrt(m[i] * m[i] + sigma[i] * sigma[i]));
+            // A fall larger than the ATM IV leaves no variance rather than squaring back to a positive one.
+            double vol = Math.max(Math.sqrt(v) + volShift, 0);
+            a[i] += vol * vol - v;
+        }
+
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public double getSize() {
+        return size;
+    }
+
+    /**
+     * @return the pivot of a {@link Type#TERM_TWIST} or NaN.
+     */
+    public double getPivotT() {
+        return pivotT;
+    }
+
+    @Override
+    public String toString() {
+        return type + "(" + size + (type == Type.TERM_TWIST ? ", pivot " + pivotT : "") + ")";
+    }
+
+}
@@ -0,0 +1,319 @@
+package com.tmck.svi;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.tmck.svi.valueobjs.OptionData;
+
+
+/**
+ * Calibrates the chains of a whole universe of underlyings.
+ * <p>
+ * Every chain is split into (root, DTE) slices, like {@link OptionData#getOptionsByDte(OptionData[], double)} does,
+ * which are calibrated as independent tasks on a work-stealing
+ * pool so a few long slices don't leave the other threads idle. Each task has a deadline which starts when the task
+ * starts running; a slice that reaches it keeps the best parameters found so far. A slice that fails is reported
+ * rather than stopping the batch.
+ *
+ * @author GuestMeNot
+ */
+public class SviBatchCalibrator {
+
+    public static final long DEFAULT_TASK_TIMEOUT_MILLIS = 1000;
+
+    /**
+     * Notified on the thread that called {@link #calibrate(Collection)} as each slice completes.
+     */
+    public interface ProgressListener {
+        void progress(Report report);
+    }
+
+    public enum Status {
+        CALIBRATED,
+
+        /**
+         * The deadline passed so the slice has the best parameters found before it.
+         */
+        TIMED_OUT,
+
+        FAILED
+    }
+
+    private final ForkJoinPool pool;
+    private CalibrationPlan plan = CalibrationPlan.full();
+    private CalibrationStrategy strategy = CalibrationStrategy.POWELL;
+    private SviParamCache paramCache;
+    private long taskTimeoutMillis = DEFAULT_TASK_TIMEOUT_MILLIS;
+    private ProgressListener progressListener;
+
+    public SviBatchCalibrator() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public SviBatchCalibrator(ForkJoinPool pool) {
+        if (pool == null) {
+            throw new IllegalArgumentException("pool must not be null");
+        }
+        this.pool = pool;
+    }
+
+    /**
+     * @param chains - the chain of each underlying.
+     * @return the outcome once every slice has completed.
+     */
+    public Report calibrate(Collection<OptionData[]> chains) {
+
+        List<String> keys = new ArrayList<>();
+        List<OptionData[]> slices = new ArrayList<>();
+        for (OptionData[] chain : chains) {
+            for (Map.Entry<String, OptionData[]> entry : groupByRootAndDte(chain).entrySet()) {
+                keys.add(entry.getKey());
+                slices.add(entry.getValue());
+            }
+        }
+
+        Report report = new Report(slices.size());
+        SviCalibrator calibrator = new SviCalibrator(plan, strategy, paramCache);
+        CompletionService<Status> completionService = new ExecutorCompletionService<>(pool);
+        List<Future<Status>> futures = new ArrayList<>(slices.size());
+
+        for (int i = 0; i < slices.size(); i++) {
+            String key = keys.get(i);
+            OptionData[] slice = slices.get(i);
+            futures.add(completionService.submit(() -> calibrate(calibrator, key, slice, report)));
+        }
+
+        try {
+
+            for (int i = 0; i < futures.size(); i++) {
+
+                completionService.take().get();
+
+                if (progressListener != null) {
+                    progressListener.progress(report);
+                }
+            }
+
+        } catch (InterruptedException e) {
+            for (Future<Status> future : futures) {
+                future.cancel(false);
+            }
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while calibrating the universe", e);
+        } catch (ExecutionException e) {
+            // calibrate() reports its own failures so this is a bug.
+            throw new IllegalStateException("SVI batch calibration failed", e.getCause());
+        }
+
+        report.finish();
+        return report;
+
+    }
+
+    /**
+     * @return the options of each root and DTE labelled "root dte: DTE".
+     */
+    private static Map<String, OptionData[]> groupByRootAndDte(OptionData[] chain) {
+
+        Map<String, List<OptionData>> byRoot = new LinkedHashMap<>();
+        for (OptionData option : chain) {
+            byRoot.computeIfAbsent(OptionData.getOptionRoot(option), k -> new ArrayList<>()).add(option);
+        }
+
+        Map<String, OptionData[]> slices = new LinkedHashMap<>();
+        for (Map.Entry<String, List<OptionData>> entry : byRoot.entrySet()) {
+
+            OptionData[] options = OptionData.convertToArray(entry.getValue());
+            List<Double> dtes = OptionData.getDtes(options);
+
+            for (Double dte : dtes) {
+                // getOptionsByDte() warns when every option has the same DTE.
+                slices.put(entry.getKey() + " dte: " + dte, dtes.size() == 1 ? options : OptionData.getOptionsByDte(options, dte));
+            }
+        }
+
+        return slices;
+
+    }
+
+    private Status calibrate(SviCalibrator calibrator, String key, OptionData[] slice, Report report) {
+
+        Status status;
+
+        try {
+
+            SviFit fit = calibrator.calibrate(slice, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(taskTimeoutMillis));
+
+            if (fit.isCalibrated()) {
+                fit.setSVIValues(slice);
+                status = fit.isDeadlineExceeded() ? Status.TIMED_OUT : Status.CALIBRATED;
+            } else {
+                status = Status.FAILED;
+                report.addFailure(key + ": no parameters were accepted");
+            }
+
+        } catch (RuntimeException e) {
+            status = Status.FAILED;
+            report.addFailure(key + ": " + e);
+        }
+
+        report.add(status);
+        return status;
+
+    }
+
+    public CalibrationPlan getCalibrationPlan() {
+        return plan;
+    }
+
+    public void setCalibrationPlan(CalibrationPlan plan) {
+        this.plan = plan;
+    }
+
+    public CalibrationStrategy getCalibrationStrategy() {
+        return strategy;
+    }
+
+    public void setCalibrationStrategy(CalibrationStrategy strategy) {
+        this.strategy = strategy;
+    }
+
+    public SviParamCache getParamCache() {
+        return paramCache;
+    }
+
+    /**
+     * @param paramCache - warm start from and update this cache or null for a cold start.
+     */
+    public void setParamCache(SviParamCache paramCache) {
+        this.paramCache = paramCache;
+    }
+
+    public long getTaskTimeoutMillis() {
+        return taskTimeoutMillis;
+    }
+
+    /**
+     * @param taskTimeoutMillis - how long one slice may calibrate for.
+     */
+    public void setTaskTimeoutMillis(long taskTimeoutMillis) {
+        if (taskTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("taskTimeoutMillis must be positive: " + taskTimeoutMillis);
+        }
+        this.taskTimeoutMillis = taskTimeoutMillis;
+    }
+
+    public ProgressListener getProgressListener() {
+        return progressListener;
+    }
+
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * The progress of a batch which is updated by the calibrating threads.
+     */
+    public static final class Report {
+
+        private final int total;
+        private final long startNanos = System.nanoTime();
+        private volatile long endNanos;
+        private volatile boolean finished;
+
+        private final AtomicInteger calibrated = new AtomicInteger();
+        private final AtomicInteger timedOut = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final List<String> failures = Collections.synchronizedList(new ArrayList<>());
+
+        private Report(int total) {
+            this.total = total;
+        }
+
+        private void add(Status status) {
+            switch (status) {
+                case CALIBRATED:
+                    calibrated.incrementAndGet();
+                    break;
+                case TIMED_OUT:
+                    timedOut.incrementAndGet();
+                    break;
+                default:
+                    failed.incrementAndGet();
+                    break;
+            }
+        }
+
+        private void addFailure(String failure) {
+            failures.add(failure);
+        }
+
+        private void finish() {
+            endNanos = System.nanoTime();
+            finished = true;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        public int getCompleted() {
+            return calibrated.get() + timedOut.get() + failed.get();
+        }
+
+        public int getCalibrated() {
+            return calibrated.get();
+        }
+
+        public int getTimedOut() {
+            return timedOut.get();
+        }
+
+        public int getFailed() {
+            return failed.get();
+        }
+
+        /**
+         * @return the root, expiry and reason of each failed slice.
+         */
+        public List<String> getFailures() {
+            synchronized (failures) {
+                return new ArrayList<>(failures);
+            }
+        }
+
+        public boolean isFinished() {
+            return finished;
+        }
+
+        /**
+         * @return the wall time so far or of the whole batch once finished.
+         */
+        public long getElapsedNanos() {
+            return (finished ? endNanos : System.nanoTime()) - startNanos;
+        }
+
+        public double getSlicesPerSecond() {
+            long elapsed = getElapsedNanos();
+            return elapsed == 0 ? Double.NaN : getCompleted() * 1e9 / elapsed;
+        }
+
+        @Override
+        public String toString() {
+            return getCompleted() + "/" + total + " slices: calibrated: " + getCalibrated() + " timed out: " + getTimedOut()
+                    + " failed: " + getFailed() + " slices/sec: " + Math.round(getSlicesPerSecond());
+        }
+    }
+
+}
@@ -0,0 +1,88 @@
+package com.tmck.svi;
+
+import com.tmck.svi.valueobjs.OptionData;
+
+
+/**
+ * Calibrates slices and returns an immutable {@link SviFit}.
+ * <p>
+ * The calibrator only holds its configuration, which can't change, so one instance can calibrate any number of
+ * slices at once from many threads. Every call works on its own {@link SVI} whose minimizers only read the slice
+ * they were given. The optional {@link SviParamCache} is safe to share.
+ *
+ * @author GuestMeNot
+ */
+public final class SviCalibrator {
+
+    private final CalibrationPlan plan;
+    private final CalibrationStrategy strategy;
+    private final SviParamCache paramCache;
+
+    public SviCalibrator() {
+        this(CalibrationPlan.full(), CalibrationStrategy.POWELL, null);
+    }
+
+    /**
+     * @param paramCache - warm start from and update this cache or null for a cold start.
+     */
+    public SviCalibrator(CalibrationPlan plan, CalibrationStrategy strategy, SviParamCache paramCache) {
+
+        if (plan == null || strategy == null) {
+            throw new IllegalArgumentException("plan and strategy are required");
+        }
+
+        this.plan = plan;
+        this.strategy = strategy;
+        this.paramCache = paramCache;
+
+    }
+
+    /**
+     * @param data - the options of one root and expiry.
+     * @throws IllegalStateException if there is too little data to calibrate.
+     */
+    public SviFit calibrate(OptionData[] data) {
+        return calibrate(newSVI(data));
+    }
+
+    /**
+     * @param data          - the options of one root and expiry.
+     * @param deadlineNanos - a {@link System#nanoTime()} value after which the best parameters so far are kept.
+     * @throws IllegalStateException if there is too little data to calibrate.
+     */
+    public SviFit calibrate(OptionData[] data, long deadlineNanos) {
+
+        SVI svi = newSVI(data);
+        svi.setDeadline(deadlineNanos);
+        return calibrate(svi);
+
+    }
+
+    private SVI newSVI(OptionData[] data) {
+
+        SVI svi = new SVI(data);
+        svi.setCalibrationPlan(plan);
+        svi.setCalibrationStrategy(strategy);
+        svi.setParamCache(paramCache);
+        return svi;
+
+    }
+
+    private static SviFit calibrate(SVI svi) {
+        svi.optimize();
+        return svi.getFit();
+    }
+
+    public CalibrationPlan getCalibrationPlan() {
+        return plan;
+    }
+
+    public CalibrationStrategy getCalibrationStrategy() {
+        return strategy;
+    }
+
+    public SviParamCache getParamCache() {
+        return paramCache;
+    }
+
+}
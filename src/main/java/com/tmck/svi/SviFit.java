@@ -0,0 +1,163 @@
+package com.tmck.svi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.tmck.svi.valueobjs.OptionData;
+
+
+/**
+ * The immutable outcome of calibrating one slice: the parameters, how well they fit and how they were found.
+ * <p>
+ * a and b are per year like the values in {@link OptionData}. A fit is safe to share between threads.
+ *
+ * @author GuestMeNot
+ * @see SviCalibrator
+ */
+public final class SviFit {
+
+    private final double a, b, p, m, sigma;
+    private final double t;
+    private final double currentValue;
+    private final double ssr;
+    private final int numStrikes;
+    private final boolean deadlineExceeded;
+    private final List<CalibrationPlan.StageResult> stageResults;
+
+    SviFit(double a, double b, double p, double m, double sigma, double t, double currentValue, double ssr,
+           int numStrikes, boolean deadlineExceeded, List<CalibrationPlan.StageResult> stageResults) {
+
+        this.a = a;
+        this.b = b;
+        this.p = p;
+        this.m = m;
+        this.sigma = sigma;
+        this.t = t;
+        this.currentValue = currentValue;
+        this.ssr = ssr;
+        this.numStrikes = numStrikes;
+        this.deadlineExceeded = deadlineExceeded;
+        this.stageResults = Collections.unmodifiableList(new ArrayList<>(stageResults));
+
+    }
+
+    /**
+     * @return true if any parameters were accepted.
+     */
+    public boolean isCalibrated() {
+        return ssr != Double.MAX_VALUE && !Double.isNaN(ssr);
+    }
+
+    /**
+     * @return true if the calibration was cut short by its deadline and has the best parameters found before it.
+     */
+    public boolean isDeadlineExceeded() {
+        return deadlineExceeded;
+    }
+
+    public double getA() {
+        return a;
+    }
+
+    public double getB() {
+        return b;
+    }
+
+    public double getP() {
+        return p;
+    }
+
+    public double getM() {
+        return m;
+    }
+
+    public double getSigma() {
+        return sigma;
+    }
+
+    /**
+     * @return the time to expiry in years.
+     */
+    public double getT() {
+        return t;
+    }
+
+    public double getCurrentValue() {
+        return currentValue;
+    }
+
+    /**
+     * @return the sum of squared IV residuals.
+     */
+    public double getSSR() {
+        return ssr;
+    }
+
+    /**
+     * @return the root mean squared IV residual or NaN if the slice isn't calibrated.
+     */
+    public double getRMSE() {
+        return isCalibrated() ? Math.sqrt(ssr / numStrikes) : Double.NaN;
+    }
+
+    public int getNumStrikes() {
+        return numStrikes;
+    }
+
+    /**
+     * @return the evaluations of the objective over every stage.
+     */
+    public long getEvaluations() {
+
+        long evaluations = 0;
+        for (CalibrationPlan.StageResult result : stageResults) {
+            evaluations += result.getEvaluations();
+        }
+        return evaluations;
+
+    }
+
+    /**
+     * @return the stages that were run in order.
+     */
+    public List<CalibrationPlan.StageResult> getStageResults() {
+        return stageResults;
+    }
+
+    /**
+     * @throws IllegalStateException if the slice isn't calibrated.
+     */
+    public SviSlice toSlice() {
+
+        if (!isCalibrated()) {
+            throw new IllegalStateException("The slice isn't calibrated");
+        }
+
+        return new SviSlice(a, b, p, m, sigma, t, currentValue);
+
+    }
+
+    /**
+     * Write the parameters to every option of the slice.
+     *
+     * @throws IllegalStateException if the slice isn't calibrated.
+     */
+    public void setSVIValues(OptionData[] data) {
+
+        if (!isCalibrated()) {
+            throw new IllegalStateException("The slice isn't calibrated");
+        }
+
+        OptionData.setSVIValues(data, a, b, p, m, sigma);
+
+    }
+
+    @Override
+    public String toString() {
+        return "SviFit{a=" + a + ", b=" + b + ", p=" + p + ", m=" + m + ", sigma=" + sigma + ", t=" + t
+                + ", RMSE=" + getRMSE() + ", evaluations=" + getEvaluations()
+                + (deadlineExceeded ? ", deadline exceeded" : "") + "}";
+    }
+
+}
@@ -0,0 +1,302 @@
+package com.tmck.svi;
+
+import java.util.List;
+
+import com.tmck.svi.valueobjs.OptionData;
+
+
+/**
+ * Converts whole surfaces between the raw and the jump-wings (JW) parameters of SVI.
+ * <p>
+ * The JW parameters of an expiry are
+ * <ul>
+ * <li>v - the ATM variance.</li>
+ * <li>psi - the ATM skew.</li>
+ * <li>p - the slope of the left (put) wing.</li>
+ * <li>c - the slope of the right (call) wing.</li>
+ * <li>vMin - the minimum variance.</li>
+ * </ul>
+ * which traders can read and shock directly. Each set of parameters is held as a structure of arrays with one
+ * element per expiry so a surface is converted in a single loop without allocating.
+ * <p>
+ * The inverse is written in terms of beta rather than alpha = sign(beta) * sqrt(1 / beta^2 - 1) so it stays finite
+ * as alpha goes to 0 or infinity and as rho goes to +-1. When the minimum variance is at the money the JW
+ * parameters don't say how wide the vertex is, so m = sigma = 0 is returned.
+ *
+ * @author GuestMeNot
+ * @see "Arbitrage-free SVI volatility surfaces by Gatheral and Jacquier - section 3.3 and Lemma 3.2"
+ */
+public class SviJumpWings {
+
+    /**
+     * The vertex is taken to be at the money when beta and rho are this close.
+     */
+    private static final double ATM_VERTEX_TOLERANCE = 1e-10;
+
+    private SviJumpWings() {
+    }
+
+    /**
+     * @param raw - a and b are per year like the values in {@link OptionData}.
+     * @param jw  - receives the JW parameters of each expiry. Raw parameters with a total variance that isn't
+     *            positive at the money give NaN.
+     */
+    public static void toJumpWings(Raw raw, JumpWings jw) {
+
+        int n = raw.size();
+        if (jw.size() != n) {
+            throw new IllegalArgumentException("Expected " + n + " expiries but there are " + jw.size());
+        }
+
+        for (int i = 0; i < n; i++) {
+
+            double t = raw.t[i];
+            // We need to convert to Raw parameters: so we multiply a & b by t.
+            double a = raw.a[i] * t;
+            double b = raw.b[i] * t;
+            double p = raw.p[i];
+            double m = raw.m[i];
+            double sigma = raw.sigma[i];
+
+            double sqrtMS = Math.sqrt(m * m + sigma * sigma);
+            double w = a + b * (-p * m + sqrtMS);
+            double sqrtW = w > 0 ? Math.sqrt(w) : Double.NaN;
+
+            // The ATM slope of sqrt((k - m)^2 + sigma^2) is 0 when the vertex is a kink at the money.
+            double slope = sqrtMS > 0 ? -m / sqrtMS : 0;
+
+            jw.t[i] = t;
+            jw.v[i] = w / t;
+            jw.psi[i] = b / (2 * sqrtW) * (p + slope);
+            jw.p[i] = b / sqrtW * (1 - p);
+            jw.c[i] = b / sqrtW * (1 + p);
+            jw.vMin[i] = (a + b * sigma * Math.sqrt(Math.max(0, 1 - p * p))) / t;
+        }
+
+    }
+
+    /**
+     * @param raw - receives the raw parameters of each expiry with a and b per year like the values in
+     *            {@link OptionData}.
+     */
+    public static void toRaw(JumpWings jw, Raw raw) {
+
+        int n = jw.size();
+        if (raw.size() != n) {
+            throw new IllegalArgumentException("Expected " + n + " expiries but there are " + raw.size());
+        }
+
+        for (int i = 0; i < n; i++) {
+
+            double t = jw.t[i];
+            double w = jw.v[i] * t;
+            double sqrtW = Math.sqrt(w);
+
+            double b = sqrtW / 2 * (jw.c[i] + jw.p[i]);
+
+            raw.t[i] = t;
+
+            if (!(b > 0)) {
+                // Both wings are flat so the total variance is too.
+                raw.a[i] = jw.v[i];
+                raw.b[i] = 0;
+                raw.p[i] = 0;
+                raw.m[i] = 0;
+                raw.sigma[i] = 0;
+                continue;
+            }
+
+            double rho = clamp(1 - jw.p[i] * sqrtW / b);
+            double beta = clamp(rho - 2 * jw.psi[i] * sqrtW / b);
+
+            double sqrt1Rho = Math.sqrt(1 - rho * rho);
+            double sqrt1Beta = Math.sqrt(1 - beta * beta);
+            double betaRho = beta - rho;
+
+            double m;
+            double sigma;
+
+            if (Math.abs(betaRho) < ATM_VERTEX_TOLERANCE) {
+                m = 0;
+                sigma = 0;
+            } else {
+                // 1 - rho * beta - sqrt((1 - beta^2) * (1 - rho^2)) without the cancellation.
+                double scale = (jw.v[i] - jw.vMin[i]) * t * (1 - rho * beta + sqrt1Beta * sqrt1Rho) / (b * betaRho * betaRho);
+                m = beta * scale;
+                sigma = sqrt1Beta * scale;
+            }
+
+            double a = jw.vMin[i] * t - b * sigma * sqrt1Rho;
+
+            raw.a[i] = a / t;
+            raw.b[i] = b / t;
+            raw.p[i] = rho;
+            raw.m[i] = m;
+            raw.sigma[i] = sigma;
+        }
+
+    }
+
+    private static double clamp(double x) {
+        return x < -1 ? -1 : (x > 1 ? 1 : x);
+    }
+
+    /**
+     * The raw parameters of a surface with a and b per year like the values in {@link OptionData}.
+     * The getters return the arrays themselves so they can be updated in place on every tick.
+     */
+    public static final class Raw {
+
+        private final double[] t;
+        private final double[] a;
+        private final double[] b;
+        private final double[] p;
+        private final double[] m;
+        private final double[] sigma;
+
+        public Raw(int expiries) {
+            t = new double[expiries];
+            a = new double[expiries];
+            b = new double[expiries];
+            p = new double[expiries];
+            m = new double[expiries];
+            sigma = new double[expiries];
+        }
+
+        /**
+         * @param data - the options of every expiry of one root. Expiries without SVI parameters are skipped.
+         */
+        public static Raw of(OptionData[] data) {
+
+            List<Double> dtes = OptionData.getDtes(data);
+
+            OptionData[] refs = new OptionData[dtes.size()];
+            int n = 0;
+            for (double dte : dtes) {
+                OptionData ref = dtes.size() == 1 ? data[0] : OptionData.getOptionsByDte(data, dte)[0];
+                if (ref.contains(OptionData.SVI_A)) {
+                    refs[n++] = ref;
+                }
+            }
+
+            Raw raw = new Raw(n);
+            for (int i = 0; i < n; i++) {
+                OptionData ref = refs[i];
+                raw.set(i, ref.getValue(OptionData.SVI_A), ref.getValue(OptionData.SVI_B), ref.getValue(OptionData.SVI_P),
+                        ref.getValue(OptionData.SVI_M), ref.getValue(OptionData.SVI_SIGMA), BlackScholes.getT(ref));
+            }
+            return raw;
+
+        }
+
+        /**
+         * @param t - the time to expiry in years.
+         */
+        public void set(int i, double a, double b, double p, double m, double sigma, double t) {
+            this.a[i] = a;
+            this.b[i] = b;
+            this.p[i] = p;
+            this.m[i] = m;
+            this.sigma[i] = sigma;
+            this.t[i] = t;
+        }
+
+        /**
+         * @param currentValue - the stock price the log-strikes are relative to.
+         */
+        public SviSlice getSlice(int i, double currentValue) {
+            return new SviSlice(a[i], b[i], p[i], m[i], sigma[i], t[i], currentValue);
+        }
+
+        public int size() {
+            return t.length;
+        }
+
+        public double[] getT() {
+            return t;
+        }
+
+        public double[] getA() {
+            return a;
+        }
+
+        public double[] getB() {
+            return b;
+        }
+
+        public double[] getP() {
+            return p;
+        }
+
+        public double[] getM() {
+            return m;
+        }
+
+        public double[] getSigma() {
+            return sigma;
+        }
+    }
+
+    /**
+     * The JW parameters of a surface. The getters return the arrays themselves so they can be shocked in place.
+     */
+    public static final class JumpWings {
+
+        private final double[] t;
+        private final double[] v;
+        private final double[] psi;
+        private final double[] p;
+        private final double[] c;
+        private final double[] vMin;
+
+        public JumpWings(int expiries) {
+            t = new double[expiries];
+            v = new double[expiries];
+            psi = new double[expiries];
+            p = new double[expiries];
+            c = new double[expiries];
+            vMin = new double[expiries];
+        }
+
+        /**
+         * @param t - the time to expiry in years.
+         */
+        public void set(int i, double v, double psi, double p, double c, double vMin, double t) {
+            this.v[i] = v;
+            this.psi[i] = psi;
+            this.p[i] = p;
+            this.c[i] = c;
+            this.vMin[i] = vMin;
+            this.t[i] = t;
+        }
+
+        public int size() {
+            return t.length;
+        }
+
+        public double[] getT() {
+            return t;
+        }
+
+        public double[] getV() {
+            return v;
+        }
+
+        public double[] getPsi() {
+            return psi;
+        }
+
+        public double[] getP() {
+            return p;
+        }
+
+        public double[] getC() {
+            return c;
+        }
+
+        public double[] getVMin() {
+            return vMin;
+        }
+    }
+
+}
@@ -0,0 +1,234 @@
+package com.tmck.svi;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.tmck.svi.valueobjs.OptionData;
+
+
+/**
+ * Remembers the last accepted SVI parameters for each (root, expiry) so the next calibration of the same slice
+ * can start from them rather than from the heuristic starting point.
+ * <p>
+ * A slice is identified by the day of its expiry, or by its DTE like {@link OptionData#getOptionsByDte(OptionData[], double)}
+ * does when the options have no expiry set.
+ * <p>
+ * The cache is bounded: once full the least recently used slice is dropped. It is safe to share between threads.
+ *
+ * @author GuestMeNot
+ */
+public class SviParamCache {
+
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    private final Map<Key, double[]> params;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public SviParamCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public SviParamCache(int maxSize) {
+
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        }
+
+        params = new LinkedHashMap<Key, double[]>(16, .75f, true) {
+
+            private static final long serialVersionUID = -2585138562154003816L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, double[]> eldest) {
+                return size() > maxSize;
+            }
+        };
+
+    }
+
+    /**
+     * @param params - receives a, b, p, m and sigma if the slice is cached.
+     * @return true if the slice is cached.
+     */
+    public boolean get(OptionData[] data, double[] params) {
+        return get(Key.of(data[0]), params);
+    }
+
+    /**
+     * @param params - receives a, b, p, m and sigma if the slice is cached.
+     * @return true if the slice is cached.
+     */
+    public boolean get(String root, Date expiry, double[] params) {
+        return get(new Key(root, expiry), params);
+    }
+
+    private boolean get(Key key, double[] params) {
+
+        double[] cached;
+        synchronized (this.params) {
+            cached = this.params.get(key);
+        }
+
+        if (cached == null) {
+            misses.incrementAndGet();
+            return false;
+        }
+
+        hits.incrementAndGet();
+        System.arraycopy(cached, 0, params, 0, cached.length);
+        return true;
+
+    }
+
+    public void put(OptionData[] data, double a, double b, double p, double m, double sigma) {
+        put(Key.of(data[0]), a, b, p, m, sigma);
+    }
+
+    public void put(String root, Date expiry, double a, double b, double p, double m, double sigma) {
+        put(new Key(root, expiry), a, b, p, m, sigma);
+    }
+
+    private void put(Key key, double a, double b, double p, double m, double sigma) {
+
+        double[] values = {a, b, p, m, sigma};
+        synchronized (params) {
+            params.put(key, values);
+        }
+
+    }
+
+    public void remove(String root, Date expiry) {
+        synchronized (params) {
+            params.remove(new Key(root, expiry));
+        }
+    }
+
+    public void clear() {
+        synchronized (params) {
+            params.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (params) {
+            return params.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the fraction of lookups that found a slice or NaN if there haven't been any lookups.
+     */
+    public double getHitRate() {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return total == 0 ? Double.NaN : (double) hits / total;
+    }
+
+    public void resetCounters() {
+        hits.set(0);
+        misses.set(0);
+    }
+
+    /**
+     * @param chain - options which may span several roots and expiries.
+     * @return the options of each (root, expiry) in the order first seen.
+     */
+    static Map<Key, OptionData[]> groupBySlice(OptionData[] chain) {
+
+        Map<Key, List<OptionData>> bySlice = new LinkedHashMap<>();
+        for (OptionData option : chain) {
+            bySlice.computeIfAbsent(Key.of(option), k -> new ArrayList<>()).add(option);
+        }
+
+        Map<Key, OptionData[]> slices = new LinkedHashMap<>();
+        for (Map.Entry<Key, List<OptionData>> entry : bySlice.entrySet()) {
+            slices.put(entry.getKey(), OptionData.convertToArray(entry.getValue()));
+        }
+
+        return slices;
+
+    }
+
+    /**
+     * Identifies a slice by its option root and the day of its expiry, or its DTE to the nearest .01 if it has no
+     * expiry. The time of day of the expiry is ignored since options of the same expiry may carry different times.
+     */
+    static final class Key {
+
+        private final String root;
+        private final long expiryDay;
+        private final long dteHundredths;
+
+        private Key(String root, long expiryDay, long dteHundredths) {
+            this.root = root;
+            this.expiryDay = expiryDay;
+            this.dteHundredths = dteHundredths;
+        }
+
+        Key(String root, Date expiry) {
+            this(root, expiry == null ? Long.MIN_VALUE : getDay(expiry), Long.MIN_VALUE);
+        }
+
+        static Key of(OptionData data) {
+
+            String root = OptionData.getOptionRoot(data);
+            if (data.hasExpiryDate()) {
+                return new Key(root, data.getExpiryDate());
+            }
+
+            return new Key(root, Long.MIN_VALUE, Math.round(data.getDte() * 100));
+
+        }
+
+        String getRoot() {
+            return root;
+        }
+
+        private static long getDay(Date date) {
+            return date.toInstant().atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay();
+        }
+
+        @Override
+        public String toString() {
+            if (dteHundredths != Long.MIN_VALUE) {
+                return root + " dte: " + dteHundredths / 100d;
+            }
+            return root + " " + (expiryDay == Long.MIN_VALUE ? "no expiry" : LocalDate.ofEpochDay(expiryDay).toString());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            Key key = (Key) o;
+            return expiryDay == key.expiryDay && dteHundredths == key.dteHundredths
+                    && (root == null ? key.root == null : root.equals(key.root));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * (root == null ? 0 : root.hashCode()) + Long.hashCode(expiryDay)) + Long.hashCode(dteHundredths);
+        }
+
+    }
+
+}
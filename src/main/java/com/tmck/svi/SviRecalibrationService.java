@@ -0,0 +1,427 @@
+package com.tmck.svi;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.tmck.svi.valueobjs.OptionData;
+
+
+/**
+ * Recalibrates only the expiry slices whose quotes changed since they were last fit.
+ * <p>
+ * Each update of the chain is compared with the bid, ask and IV of every option at the last fit. A changed slice
+ * is marked dirty and a recalibration is scheduled after the debounce delay so a burst of ticks is fit once. The
+ * delay starts at the first dirty tick rather than the last so a steady stream of ticks can't postpone the fit
+ * indefinitely. Dirty slices are warm started from their previous parameters through the {@link SviParamCache}.
+ * <p>
+ * Most ticks touch one or two expiries so this is far cheaper than refitting the whole chain with
+ * {@link SVI#calculateSVIParams(OptionData[])}.
+ * <p>
+ * {@link OptionData} isn't thread-safe so the recalibration never touches the caller's options. A dirty slice is
+ * copied on the caller's thread in {@link #update(OptionData[])} and only the copies are fit. The fit is kept here as
+ * an immutable {@link SviFit} and written to the caller's options by the next update whose quotes are unchanged, so
+ * fresh option objects with the same quotes get the SVI values too. {@link #getFit(OptionData)} returns it directly.
+ * <p>
+ * Each update is taken to hold every expiry of the roots in it, so the slices of those roots that are missing from it
+ * have expired or been delisted and are dropped. Roots that aren't in the update are kept.
+ *
+ * @author GuestMeNot
+ */
+public class SviRecalibrationService implements AutoCloseable {
+
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 100;
+
+    private final SviParamCache paramCache;
+    private final SviCalibrator calibrator;
+    private final ExecutorService executor;
+    private final long debounceMillis;
+    private final ScheduledExecutorService scheduler;
+
+    private final Map<SviParamCache.Key, Slice> slices = new HashMap<>();
+    private boolean scheduled;
+
+    /**
+     * Held while recalibrating so the same slice is never fit by two threads at once.
+     */
+    private final Object calibrationLock = new Object();
+
+    private final AtomicLong recalibrated = new AtomicLong();
+    private final AtomicLong unchanged = new AtomicLong();
+    private final AtomicLong recalibrations = new AtomicLong();
+
+    public SviRecalibrationService() {
+        this(new SviParamCache(), CalibrationPlan.full(), CalibrationStrategy.POWELL, null, DEFAULT_DEBOUNCE_MILLIS);
+    }
+
+    /**
+     * @param paramCache     - warm starts the dirty slices and is updated with their new parameters.
+     * @param executor       - calibrates the dirty slices concurrently or null to calibrate them one after another.
+     * @param debounceMillis - how long to wait after a slice becomes dirty before recalibrating.
+     */
+    public SviRecalibrationService(SviParamCache paramCache, CalibrationPlan plan, CalibrationStrategy strategy,
+                                   ExecutorService executor, long debounceMillis) {
+
+        if (paramCache == null || plan == null || strategy == null) {
+            throw new IllegalArgumentException("paramCache, plan and strategy are required");
+        }
+
+        if (debounceMillis < 0) {
+            throw new IllegalArgumentException("debounceMillis must not be negative: " + debounceMillis);
+        }
+
+        this.paramCache = paramCache;
+        this.calibrator = new SviCalibrator(plan, strategy, paramCache);
+        this.executor = executor;
+        this.debounceMillis = debounceMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "svi-recalibration");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    }
+
+    /**
+     * Compare the chain with the quotes of the last fit and schedule the changed slices for recalibration. The options
+     * of unchanged slices that have been fit get the SVI values of the fit.
+     *
+     * @param chain - the latest options which may span several roots and expiries.
+     * @return the number of dirty slices in the chain.
+     */
+    public int update(OptionData[] chain) {
+        return update(chain, false);
+    }
+
+    /**
+     * Schedule every slice of the chain for recalibration whether or not its quotes changed.
+     */
+    public int markDirty(OptionData[] chain) {
+        return update(chain, true);
+    }
+
+    private int update(OptionData[] chain, boolean force) {
+
+        Map<SviParamCache.Key, OptionData[]> bySlice = SviParamCache.groupBySlice(chain);
+
+        int dirty = 0;
+
+        Set<String> roots = new HashSet<>();
+        for (SviParamCache.Key key : bySlice.keySet()) {
+            roots.add(key.getRoot());
+        }
+
+        synchronized (slices) {
+
+            slices.keySet().removeIf(key -> roots.contains(key.getRoot()) && !bySlice.containsKey(key));
+
+            for (Map.Entry<SviParamCache.Key, OptionData[]> entry : bySlice.entrySet()) {
+
+                OptionData[] data = entry.getValue();
+
+                Slice slice = slices.computeIfAbsent(entry.getKey(), k -> new Slice());
+
+                if (force || (!slice.dirty && isChanged(slice.fittedQuotes, data))) {
+                    slice.dirty = true;
+                }
+
+                if (slice.dirty) {
+                    // Copied on the caller's thread so the recalibration doesn't read options the caller may change.
+                    slice.data = copy(data);
+                    dirty++;
+                } else {
+                    unchanged.incrementAndGet();
+                    if (slice.fit != null && slice.fit.isCalibrated()) {
+                        slice.fit.setSVIValues(data);
+                    }
+                }
+            }
+
+            if (dirty > 0 && !scheduled && !scheduler.isShutdown()) {
+                scheduled = true;
+                scheduler.schedule(this::recalibrateScheduled, debounceMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        return dirty;
+
+    }
+
+    private void recalibrateScheduled() {
+
+        try {
+            recalibrate();
+        } catch (RuntimeException e) {
+            // The scheduler would swallow it.
+            e.printStackTrace();
+        }
+
+    }
+
+    /**
+     * Recalibrate the dirty slices now rather than waiting for the debounce delay. The caller's options get the new
+     * SVI values on the next {@link #update(OptionData[])}.
+     *
+     * @return the number of slices recalibrated.
+     */
+    public int recalibrate() {
+
+        synchronized (calibrationLock) {
+
+            List<Slice> dirty = new ArrayList<>();
+            List<OptionData[]> copies = new ArrayList<>();
+            List<double[]> previousQuotes = new ArrayList<>();
+            List<SviFit> previousFits = new ArrayList<>();
+
+            synchronized (slices) {
+
+                scheduled = false;
+
+                for (Slice slice : slices.values()) {
+                    if (slice.dirty) {
+                        dirty.add(slice);
+                        copies.add(slice.data);
+                        previousQuotes.add(slice.fittedQuotes);
+                        previousFits.add(slice.fit);
+
+                        // Quotes that change while fitting will be seen by the next update.
+                        slice.dirty = false;
+                        slice.fittedQuotes = getQuotes(slice.data);
+                        // The last fit is for other quotes.
+                        slice.fit = null;
+                    }
+                }
+            }
+
+            SviFit[] fits = new SviFit[dirty.size()];
+            List<Future<SviFit>> futures = new ArrayList<>(dirty.size());
+            boolean completed = false;
+
+            try {
+
+                if (executor == null || dirty.size() == 1) {
+                    for (int i = 0; i < fits.length; i++) {
+                        fits[i] = calibrate(copies.get(i));
+                    }
+                } else {
+                    for (OptionData[] data : copies) {
+                        futures.add(executor.submit(() -> calibrate(data)));
+                    }
+                    for (int i = 0; i < fits.length; i++) {
+                        fits[i] = await(futures.get(i));
+                    }
+                }
+
+                completed = true;
+
+            } finally {
+
+                synchronized (slices) {
+                    for (int i = 0; i < fits.length; i++) {
+                        Slice slice = dirty.get(i);
+                        if (completed) {
+                            slice.fit = fits[i];
+                        } else {
+                            // Put the slices back as they were so they are fit again rather than left without a fit.
+                            slice.dirty = true;
+                            slice.fittedQuotes = previousQuotes.get(i);
+                            slice.fit = previousFits.get(i);
+                        }
+                    }
+                }
+
+                if (!completed) {
+                    for (Future<SviFit> future : futures) {
+                        future.cancel(true);
+                    }
+                }
+            }
+
+            recalibrated.addAndGet(dirty.size());
+            recalibrations.incrementAndGet();
+
+            return dirty.size();
+        }
+
+    }
+
+    /**
+     * @return the fit or null if the slice could not be calibrated.
+     */
+    private SviFit calibrate(OptionData[] data) {
+
+        try {
+            return calibrator.calibrate(data);
+        } catch (RuntimeException e) {
+            // There likely wasn't enough data to do the calculations. One bad slice mustn't stop the others.
+            e.printStackTrace();
+            return null;
+        }
+
+    }
+
+    private static SviFit await(Future<SviFit> future) {
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while recalibrating SVI", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("SVI recalibration failed", e.getCause());
+        }
+
+    }
+
+    /**
+     * Copies the options with their expiry date, which {@link OptionData#copy()} doesn't keep, so the copies are in the
+     * same slice of the {@link SviParamCache}.
+     */
+    private static OptionData[] copy(OptionData[] data) {
+
+        OptionData[] copy = OptionData.copy(data);
+        for (int i = 0; i < data.length; i++) {
+            if (data[i].hasExpiryDate()) {
+                copy[i].setExpiryDate((Date) data[i].getExpiryDate().clone());
+            }
+        }
+        return copy;
+
+    }
+
+    /**
+     * @return the strike, bid, ask and IV of each option.
+     */
+    private static double[] getQuotes(OptionData[] data) {
+
+        double[] quotes = new double[data.length * 4];
+        for (int i = 0, j = 0; i < data.length; i++) {
+            quotes[j++] = data[i].getStrikePrice();
+            quotes[j++] = data[i].getBid();
+            quotes[j++] = data[i].getAsk();
+            quotes[j++] = data[i].getIV();
+        }
+        return quotes;
+
+    }
+
+    /**
+     * Compares without allocating since nearly every slice is unchanged on a tick.
+     */
+    private static boolean isChanged(double[] fittedQuotes, OptionData[] data) {
+
+        if (fittedQuotes == null || fittedQuotes.length != data.length * 4) {
+            return true;
+        }
+
+        for (int i = 0, j = 0; i < data.length; i++) {
+            if (isChanged(fittedQuotes[j++], data[i].getStrikePrice())
+                    || isChanged(fittedQuotes[j++], data[i].getBid())
+                    || isChanged(fittedQuotes[j++], data[i].getAsk())
+                    || isChanged(fittedQuotes[j++], data[i].getIV())) {
+                return true;
+            }
+        }
+
+        return false;
+
+    }
+
+    private static boolean isChanged(double fitted, double current) {
+        // Compares the bits so a quote that stays NaN is unchanged.
+        return Double.doubleToLongBits(fitted) != Double.doubleToLongBits(current);
+    }
+
+    /**
+     * @return the last fit of the option's slice, which is for older quotes while the slice is dirty, or null if the
+     * slice is being recalibrated or couldn't be calibrated.
+     */
+    public SviFit getFit(OptionData option) {
+
+        synchronized (slices) {
+            Slice slice = slices.get(SviParamCache.Key.of(option));
+            return slice == null ? null : slice.fit;
+        }
+
+    }
+
+    /**
+     * @return the number of slices being tracked.
+     */
+    public int getSlices() {
+        synchronized (slices) {
+            return slices.size();
+        }
+    }
+
+    public int getDirtySlices() {
+
+        int dirty = 0;
+        synchronized (slices) {
+            for (Slice slice : slices.values()) {
+                if (slice.dirty) {
+                    dirty++;
+                }
+            }
+        }
+        return dirty;
+
+    }
+
+    /**
+     * @return the total number of slices recalibrated.
+     */
+    public long getRecalibratedSlices() {
+        return recalibrated.get();
+    }
+
+    /**
+     * @return the total number of slice updates that didn't change any quotes.
+     */
+    public long getUnchangedSlices() {
+        return unchanged.get();
+    }
+
+    /**
+     * @return the number of times the dirty slices were recalibrated.
+     */
+    public long getRecalibrations() {
+        return recalibrations.get();
+    }
+
+    public SviParamCache getParamCache() {
+        return paramCache;
+    }
+
+    /**
+     * Stop scheduling recalibrations. A recalibration that is already scheduled still runs.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdown();
+    }
+
+    private static final class Slice {
+
+        /**
+         * A copy of the latest quotes of a dirty slice.
+         */
+        private OptionData[] data;
+        private double[] fittedQuotes;
+        private boolean dirty;
+        private SviFit fit;
+
+    }
+
+}
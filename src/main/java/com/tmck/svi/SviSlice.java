@@ -0,0 +1,436 @@
+package com.tmck.svi;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.math3.special.Erf;
+
+import com.tmck.svi.valueobjs.OptionData;
+
+
+/**
+ * The calibrated SVI of one (root, expiry) slice which can be evaluated at any number of strikes.
+ * <p>
+ * {@link #of(OptionData[])} remembers the slices it calibrated so asking for the IVs of many strikes of the same
+ * slice, e.g. when building a synthetic chain with {@link SVI#createOptionDataFromSviParams(OptionData[], double)},
+ * calibrates once. A cached slice is only reused while the strike, IV, stock price and DTE of every option are the
+ * ones it was fit to; otherwise the slice is calibrated again.
+ * <p>
+ * a and b are per year like the values in {@link OptionData}. A slice is immutable and safe to share between threads.
+ *
+ * @author GuestMeNot
+ */
+public final class SviSlice {
+
+    public static final int CACHE_SIZE = 1000;
+
+    private static final Map<SviParamCache.Key, SviSlice> cache = new LinkedHashMap<SviParamCache.Key, SviSlice>(16, .75f, true) {
+
+        private static final long serialVersionUID = 4019384718622749183L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<SviParamCache.Key, SviSlice> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    /**
+     * Within 1e-10 of d1 the delta is within 1e-10 as well.
+     */
+    private static final double DELTA_D1_TOLERANCE = 1e-10;
+    private static final int MAX_DELTA_ITERATIONS = 100;
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    private final double a, b, p, m, sigma;
+    private final double t;
+    private final double currentValue;
+    private final double ssr;
+
+    /**
+     * The strike, IV, stock price and DTE of each option the slice was fit to or null if it wasn't calibrated here.
+     */
+    private final double[] quotes;
+
+    /**
+     * @param a            - per year.
+     * @param b            - per year.
+     * @param t            - the time to expiry in years.
+     * @param currentValue - the stock price the log-strikes are relative to.
+     */
+    public SviSlice(double a, double b, double p, double m, double sigma, double t, double currentValue) {
+        this(a, b, p, m, sigma, t, currentValue, Double.NaN, null);
+    }
+
+    private SviSlice(double a, double b, double p, double m, double sigma, double t, double currentValue,
+                     double ssr, double[] quotes) {
+
+        if (!(t > 0)) {
+            throw new IllegalArgumentException("t must be positive: " + t);
+        }
+
+        this.a = a;
+        this.b = b;
+        this.p = p;
+        this.m = m;
+        this.sigma = sigma;
+        this.t = t;
+        this.currentValue = currentValue;
+        this.ssr = ssr;
+        this.quotes = quotes;
+
+    }
+
+    /**
+     * Calibrate the slice without looking in the cache.
+     *
+     * @param data - the options of one root and expiry.
+     */
+    public static SviSlice calibrate(OptionData[] data) {
+
+        double[] quotes = getQuotes(data);
+
+        SVI svi = new SVI(data);
+        svi.optimize();
+
+        return new SviSlice(svi.getA(), svi.getB(), svi.getP(), svi.getM(), svi.getSigma(), SVI.getT(data),
+                data[0].getCurrentStockPrice(), svi.getSSR(), quotes);
+
+    }
+
+    /**
+     * @param data - the options of one root and expiry.
+     * @return the cached slice if it was fit to the same quotes, otherwise the newly calibrated slice.
+     */
+    public static SviSlice of(OptionData[] data) {
+
+        SviParamCache.Key key = SviParamCache.Key.of(data[0]);
+
+        SviSlice slice;
+        synchronized (cache) {
+            slice = cache.get(key);
+        }
+
+        if (slice != null && slice.isFitTo(data)) {
+            hits.incrementAndGet();
+            return slice;
+        }
+
+        misses.incrementAndGet();
+
+        // Two threads may calibrate the same slice at once, which is wasteful but harmless.
+        slice = calibrate(data);
+        synchronized (cache) {
+            cache.put(key, slice);
+        }
+        return slice;
+
+    }
+
+    public static void clearCache() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    public static long getCacheHits() {
+        return hits.get();
+    }
+
+    public static long getCacheMisses() {
+        return misses.get();
+    }
+
+    private static double[] getQuotes(OptionData[] data) {
+
+        double[] quotes = new double[data.length * 4];
+        for (int i = 0, j = 0; i < data.length; i++) {
+            quotes[j++] = data[i].getStrikePrice();
+            quotes[j++] = data[i].getIV();
+            quotes[j++] = data[i].getCurrentStockPrice();
+            quotes[j++] = data[i].getDte();
+        }
+        return quotes;
+
+    }
+
+    /**
+     * Compares without allocating since this is on the path of every cached query.
+     */
+    private boolean isFitTo(OptionData[] data) {
+
+        if (quotes == null || quotes.length != data.length * 4) {
+            return false;
+        }
+
+        for (int i = 0, j = 0; i < data.length; i++) {
+            if (isChanged(quotes[j++], data[i].getStrikePrice())
+                    || isChanged(quotes[j++], data[i].getIV())
+                    || isChanged(quotes[j++], data[i].getCurrentStockPrice())
+                    || isChanged(quotes[j++], data[i].getDte())) {
+                return false;
+            }
+        }
+
+        return true;
+
+    }
+
+    private static boolean isChanged(double fitted, double current) {
+        // Compares the bits so a quote that stays NaN is unchanged.
+        return Double.doubleToLongBits(fitted) != Double.doubleToLongBits(current);
+    }
+
+    /**
+     * @return the total variance or Double.MAX_VALUE if the parameters are out of tolerance.
+     */
+    public double getTotalVariance(double strike) {
+        return getTotalVarianceAtLogStrike(OptionData.getLogStrike(strike, currentValue));
+    }
+
+    /**
+     * @return the total variance or Double.MAX_VALUE if the parameters are out of tolerance.
+     */
+    public double getTotalVarianceAtLogStrike(double k) {
+        // We need to convert to Raw parameters: so we multiply a & b by t.
+        return SVI.calculateSVI(a * t, b * t, p, k, m, sigma, sigma * sigma, t);
+    }
+
+    /**
+     * Evaluates like {@link SVI#calculateIV(OptionData[], double)}: parameters out of tolerance give a very large IV.
+     */
+    public double getIV(double strike) {
+        return SVI.getIVFromWT(getTotalVariance(strike), t);
+    }
+
+    /**
+     * @param ivs - receives the IV of each strike or NaN if the parameters are out of tolerance.
+     *            It may be the strikes array or longer than it, in which case the elements after the strikes aren't
+     *            touched.
+     * @throws IllegalArgumentException if ivs is shorter than strikes.
+     */
+    public void getIVs(double[] strikes, double[] ivs) {
+
+        int n = strikes.length;
+        if (ivs.length < n) {
+            throw new IllegalArgumentException("Expected at least " + n + " IVs but there are " + ivs.length);
+        }
+
+        for (int i = 0; i < n; i++) {
+            ivs[i] = OptionData.getLogStrike(strikes[i], currentValue);
+        }
+
+        SVI.calculateSVI(a * t, b * t, p, m, sigma, t, ivs, ivs, n);
+
+        for (int i = 0; i < n; i++) {
+            double w_i = ivs[i];
+            ivs[i] = w_i == Double.MAX_VALUE ? Double.NaN : SVI.getIVFromWT(w_i, t);
+        }
+
+    }
+
+    /**
+     * @param delta - the Black-Scholes delta, e.g. .25 or -.25. The sign is corrected for calls and puts.
+     * @param r     - the risk free rate.
+     * @return the strike whose delta at its own SVI IV is delta or NaN if there isn't one.
+     * @see #getStrikesForDeltas(boolean, double[], double, double[])
+     */
+    public double getStrikeForDelta(boolean call, double delta, double r) {
+
+        double k = solveLogStrikeForD1(getD1ForDelta(call, delta), r, Double.NaN);
+        return Double.isNaN(k) ? Double.NaN : currentValue * Math.exp(k);
+
+    }
+
+    /**
+     * Solve for the strike of each delta in one pass.
+     * <p>
+     * Unlike {@link SVI#calculateCurrentStrikeForExactDelta(OptionData[], double)} which interpolates between two
+     * quoted deltas this is consistent with the skew: d1 is evaluated at the SVI IV of the strike being tried. Each
+     * delta starts from the strike of the previous one so sorted deltas converge in a couple of iterations.
+     *
+     * @param deltas  - the Black-Scholes deltas, e.g. .05, .1, .25 and .5. The sign is corrected for calls and puts.
+     * @param r       - the risk free rate.
+     * @param strikes - receives the strike of each delta or NaN if there isn't one. It may be the deltas array.
+     */
+    public void getStrikesForDeltas(boolean call, double[] deltas, double r, double[] strikes) {
+
+        double k = Double.NaN;
+        for (int i = 0; i < deltas.length; i++) {
+            double solved = solveLogStrikeForD1(getD1ForDelta(call, deltas[i]), r, k);
+            if (!Double.isNaN(solved)) {
+                k = solved;
+            }
+            strikes[i] = Double.isNaN(solved) ? Double.NaN : currentValue * Math.exp(solved);
+        }
+
+    }
+
+    /**
+     * A call delta is N(d1) and a put delta is N(d1) - 1 so both come down to finding d1.
+     */
+    private static double getD1ForDelta(boolean call, double delta) {
+
+        // Make sure the delta is the proper sign... it is common for users to mix up the sign.
+        double callDelta = call ? Math.abs(delta) : 1 - Math.abs(delta);
+
+        if (!(callDelta > 0 && callDelta < 1)) {
+            return Double.NaN;
+        }
+
+        double d1 = Math.sqrt(2) * Erf.erfInv(2 * callDelta - 1);
+
+        // Agree with the delta of BlackScholes which uses an approximation of N.
+        for (int i = 0; i < 2; i++) {
+            d1 -= (BlackScholes.CND(d1) - callDelta) / BlackScholes.phi(d1);
+        }
+
+        return d1;
+
+    }
+
+    /**
+     * Newton's method on g(k) = d1(k) - d1 where d1(k) = (rT - k) / sqrt(w(k)) + sqrt(w(k)) / 2. g decreases in k
+     * for an arbitrage free slice so a step that leaves the bracket around the root is replaced by bisection.
+     *
+     * @param kStart - the log-strike to start from or NaN to start from the ATM total variance.
+     * @return the log-strike or NaN if there isn't one.
+     */
+    private double solveLogStrikeForD1(double d1, double r, double kStart) {
+
+        if (Double.isNaN(d1)) {
+            return Double.NaN;
+        }
+
+        double aT = a * t;
+        double bT = b * t;
+        double sigmasigma = sigma * sigma;
+        double rT = r * t;
+
+        if (!SVI.parametersWithinTolerance(aT, bT, p, m, sigma, t)) {
+            return Double.NaN;
+        }
+
+        double k = kStart;
+        if (Double.isNaN(k)) {
+            // The strike of the delta if the IV were flat at the ATM IV.
+            double sqrtW0 = Math.sqrt(SVI.calculateSVI(aT, bT, p, 0, m, sigma, sigmasigma, t));
+            k = rT + sqrtW0 * sqrtW0 / 2 - d1 * sqrtW0;
+        }
+
+        double lo = -Double.MAX_VALUE;
+        double hi = Double.MAX_VALUE;
+
+        for (int i = 0; i < MAX_DELTA_ITERATIONS; i++) {
+
+            double km = k - m;
+            double sqrt = Math.sqrt(km * km + sigmasigma);
+            double w = aT + bT * (p * km + sqrt);
+            if (!(w > 0)) {
+                return Double.NaN;
+            }
+
+            double sqrtW = Math.sqrt(w);
+            double g = (rT - k) / sqrtW + sqrtW / 2 - d1;
+
+            if (Math.abs(g) < DELTA_D1_TOLERANCE) {
+                return k;
+            }
+
+            if (g > 0) {
+                lo = k;
+            } else {
+                hi = k;
+            }
+
+            double dw = bT * (p + km / sqrt);
+            double dg = -1 / sqrtW + (1 / (4 * sqrtW) - (rT - k) / (2 * w * sqrtW)) * dw;
+
+            double next = k - g / dg;
+            if (!(next > lo && next < hi)) {
+                if (lo == -Double.MAX_VALUE || hi == Double.MAX_VALUE) {
+                    // Not bracketed yet so step by about one standard deviation towards the root.
+                    next = g > 0 ? k + sqrtW : k - sqrtW;
+                } else {
+                    next = (lo + hi) / 2;
+                }
+            }
+
+            k = next;
+        }
+
+        return Double.NaN;
+
+    }
+
+    /**
+     * Write the parameters to every option unless the first and last already have them.
+     */
+    public void setSVIValues(OptionData[] data) {
+
+        if (hasSVIValues(data[0]) && hasSVIValues(data[data.length - 1])) {
+            return;
+        }
+
+        OptionData.setSVIValues(data, a, b, p, m, sigma);
+
+    }
+
+    private boolean hasSVIValues(OptionData option) {
+
+        return option.contains(OptionData.SVI_A)
+                && !isChanged(a, option.getValue(OptionData.SVI_A))
+                && !isChanged(b, option.getValue(OptionData.SVI_B))
+                && !isChanged(p, option.getValue(OptionData.SVI_P))
+                && !isChanged(m, option.getValue(OptionData.SVI_M))
+                && !isChanged(sigma, option.getValue(OptionData.SVI_SIGMA));
+
+    }
+
+    public double getA() {
+        return a;
+    }
+
+    public double getB() {
+        return b;
+    }
+
+    public double getP() {
+        return p;
+    }
+
+    public double getM() {
+        return m;
+    }
+
+    public double getSigma() {
+        return sigma;
+    }
+
+    /**
+     * @return the time to expiry in years.
+     */
+    public double getT() {
+        return t;
+    }
+
+    public double getCurrentValue() {
+        return currentValue;
+    }
+
+    /**
+     * @return the sum of squared IV residuals of the fit or NaN if the slice wasn't calibrated here.
+     */
+    public double getSSR() {
+        return ssr;
+    }
+
+    @Override
+    public String toString() {
+        return "SviSlice{a=" + a + ", b=" + b + ", p=" + p + ", m=" + m + ", sigma=" + sigma + ", t=" + t
+                + ", currentValue=" + currentValue + "}";
+    }
+
+}
@@ -0,0 +1,270 @@
+package com.tmck.svi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import com.tmck.svi.valueobjs.OptionData;
+
+
+/**
+ * The calibrated SVI slices of one root evaluated at any time to expiry, e.g. a constant 30 day tenor or an OTC
+ * expiry which isn't listed.
+ * <p>
+ * Between two expiries the total variance is interpolated linearly in time at fixed log-moneyness:
+ * <pre>
+ *     w(k, t) = (1 - f) * w_j(k) + f * w_j+1(k)    where f = (t - t_j) / (t_j+1 - t_j)
+ * </pre>
+ * which is free of calendar arbitrage whenever the slices are, since w stays non-decreasing in t at every k.
+ * Before the first and after the last expiry the IV is held flat, i.e. the total variance is scaled by t.
+ * <p>
+ * The raw coefficients of each slice are computed once so a query evaluates two slices and blends them. Unlike
+ * {@link SurfaceGrid} the slices are evaluated exactly rather than interpolated in log-moneyness.
+ * <p>
+ * A surface is immutable and safe to share between threads.
+ *
+ * @author GuestMeNot
+ * @see "Arbitrage-free SVI volatility surfaces by Gatheral and Jacquier - section 5.2"
+ */
+public final class SviSurface {
+
+    private final double[] ts;
+
+    // The raw SVI of each expiry, i.e. a and b multiplied by t.
+    private final double[] as;
+    private final double[] bs;
+    private final double[] ps;
+    private final double[] ms;
+    private final double[] sigmasigmas;
+
+    private SviSurface(List<SviSlice> slices) {
+
+        slices.sort((s1, s2) -> Double.compare(s1.getT(), s2.getT()));
+
+        int n = slices.size();
+        ts = new double[n];
+        as = new double[n];
+        bs = new double[n];
+        ps = new double[n];
+        ms = new double[n];
+        sigmasigmas = new double[n];
+
+        for (int j = 0; j < n; j++) {
+
+            SviSlice slice = slices.get(j);
+            double t = slice.getT();
+
+            if (j > 0 && t == ts[j - 1]) {
+                throw new IllegalArgumentException("Two slices expire at the same time: " + t);
+            }
+
+            ts[j] = t;
+            as[j] = slice.getA() * t;
+            bs[j] = slice.getB() * t;
+            ps[j] = slice.getP();
+            ms[j] = slice.getM();
+            sigmasigmas[j] = slice.getSigma() * slice.getSigma();
+        }
+
+    }
+
+    /**
+     * @param data - the options of every expiry of one root. Expiries without SVI parameters are skipped.
+     */
+    public static SviSurface build(OptionData[] data) {
+
+        List<Double> dtes = OptionData.getDtes(data);
+        List<SviSlice> slices = new ArrayList<>(dtes.size());
+
+        for (double dte : dtes) {
+
+            OptionData ref = dtes.size() == 1 ? data[0] : OptionData.getOptionsByDte(data, dte)[0];
+            if (!ref.contains(OptionData.SVI_A) || !(BlackScholes.getT(ref) > 0)) {
+                continue;
+            }
+
+            slices.add(new SviSlice(ref.getValue(OptionData.SVI_A), ref.getValue(OptionData.SVI_B),
+                    ref.getValue(OptionData.SVI_P), ref.getValue(OptionData.SVI_M), ref.getValue(OptionData.SVI_SIGMA),
+                    BlackScholes.getT(ref), ref.getCurrentStockPrice()));
+        }
+
+        return build(slices);
+
+    }
+
+    /**
+     * @param slices - one slice per expiry of the same root. Slices whose parameters are out of tolerance are skipped.
+     */
+    public static SviSurface build(Collection<SviSlice> slices) {
+
+        List<SviSlice> valid = new ArrayList<>(slices.size());
+        for (SviSlice slice : slices) {
+            double t = slice.getT();
+            if (SVI.parametersWithinTolerance(slice.getA() * t, slice.getB() * t, slice.getP(), slice.getM(),
+                    slice.getSigma(), t)) {
+                valid.add(slice);
+            }
+        }
+
+        if (valid.isEmpty()) {
+            throw new IllegalStateException("There aren't any calibrated expiries to build the surface from");
+        }
+
+        return new SviSurface(valid);
+
+    }
+
+    /**
+     * @param k - the log-moneyness.
+     * @param t - the time to expiry in years.
+     * @return the total variance or NaN if it is invalid.
+     */
+    public double getTotalVariance(double k, double t) {
+
+        int last = ts.length - 1;
+
+        if (t <= ts[0]) {
+            return calculateSVI(0, k) * (t / ts[0]);
+        }
+
+        if (t >= ts[last]) {
+            return calculateSVI(last, k) * (t / ts[last]);
+        }
+
+        int j = Arrays.binarySearch(ts, t);
+        if (j >= 0) {
+            return calculateSVI(j, k);
+        }
+        // The expiry before t from -(insertion point) - 1.
+        j = -j - 2;
+
+        double f = (t - ts[j]) / (ts[j + 1] - ts[j]);
+        return (1 - f) * calculateSVI(j, k) + f * calculateSVI(j + 1, k);
+
+    }
+
+    /**
+     * @see SVI#calculateSVI(double, double, double, double, double, double, double, double)
+     */
+    private double calculateSVI(int j, double k) {
+
+        double km = k - ms[j];
+        double w_i = as[j] + bs[j] * (ps[j] * km + Math.sqrt(km * km + sigmasigmas[j]));
+
+        if (w_i < 0 || Double.isInfinite(w_i)) {
+            return Double.NaN;
+        }
+
+        return w_i;
+
+    }
+
+    /**
+     * The derivatives of the same interpolation as {@link #getTotalVariance(double, double)}: dw/dt is constant
+     * between expiries and w / t outside them.
+     *
+     * @param k           - the log-moneyness.
+     * @param t           - the time to expiry in years.
+     * @param derivatives - receives w, dw/dk, d2w/dk2 and dw/dt.
+     */
+    void getTotalVarianceDerivatives(double k, double t, double[] derivatives) {
+
+        int last = ts.length - 1;
+
+        if (t <= ts[0] || t >= ts[last]) {
+
+            int j = t <= ts[0] ? 0 : last;
+            calculateSVIDerivatives(j, k, derivatives);
+
+            double w = derivatives[0];
+            double scale = t / ts[j];
+            derivatives[0] = w * scale;
+            derivatives[1] *= scale;
+            derivatives[2] *= scale;
+            derivatives[3] = w / ts[j];
+            return;
+        }
+
+        int j = Arrays.binarySearch(ts, t);
+        // The expiry before t, or t itself, from -(insertion point) - 1.
+        j = j >= 0 ? Math.min(j, last - 1) : -j - 2;
+
+        calculateSVIDerivatives(j, k, derivatives);
+        double w0 = derivatives[0];
+        double wk0 = derivatives[1];
+        double wkk0 = derivatives[2];
+
+        calculateSVIDerivatives(j + 1, k, derivatives);
+
+        double dt = ts[j + 1] - ts[j];
+        double f = (t - ts[j]) / dt;
+
+        derivatives[3] = (derivatives[0] - w0) / dt;
+        derivatives[0] = (1 - f) * w0 + f * derivatives[0];
+        derivatives[1] = (1 - f) * wk0 + f * derivatives[1];
+        derivatives[2] = (1 - f) * wkk0 + f * derivatives[2];
+
+    }
+
+    /**
+     * @param derivatives - receives w, dw/dk and d2w/dk2 of expiry j.
+     */
+    private void calculateSVIDerivatives(int j, double k, double[] derivatives) {
+
+        double km = k - ms[j];
+        double sqrt = Math.sqrt(km * km + sigmasigmas[j]);
+
+        derivatives[0] = calculateSVI(j, k);
+        derivatives[1] = bs[j] * (ps[j] + km / sqrt);
+        derivatives[2] = bs[j] * sigmasigmas[j] / (sqrt * sqrt * sqrt);
+
+    }
+
+    /**
+     * @param k - the log-moneyness.
+     * @param t - the time to expiry in years.
+     */
+    public double getIV(double k, double t) {
+        return SVI.getIVFromWT(getTotalVariance(k, t), t);
+    }
+
+    /**
+     * @param t - the time to expiry in years.
+     */
+    public double getIV(double strike, double currentValue, double t) {
+        return getIV(OptionData.getLogStrike(strike, currentValue), t);
+    }
+
+    /**
+     * @param dte - the time to expiry in trading days.
+     */
+    public double getIVForDte(double strike, double currentValue, double dte) {
+        return getIV(strike, currentValue, BlackScholes.convertDteToYears(dte));
+    }
+
+    /**
+     * @param ks  - the log-moneyness of each option.
+     * @param t   - the time to expiry in years.
+     * @param ivs - receives the IV at each log-moneyness or NaN where it is invalid. It may be the ks array.
+     */
+    public void getIVs(double[] ks, double t, double[] ivs) {
+
+        for (int i = 0; i < ks.length; i++) {
+            ivs[i] = getIV(ks[i], t);
+        }
+
+    }
+
+    /**
+     * @return the time to expiry in years of each expiry in the surface.
+     */
+    public double[] getTs() {
+        return ts.clone();
+    }
+
+    public int getNumExpiries() {
+        return ts.length;
+    }
+
+}
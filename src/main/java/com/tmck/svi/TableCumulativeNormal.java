@@ -0,0 +1,67 @@
+package com.tmck.svi;
+
+
+/**
+ * The cumulative normal from a table of the upper tail and the density every 1/64, with a 4th order Taylor polynomial
+ * from the nearest point. No exponential is needed so it is the fastest.
+ * <p>
+ * The derivatives of the tail Q are -phi times the Hermite polynomials so the truncation error is at most
+ * phi(x) * He4(x) * (1/128)^5 / 120 &lt; 3e-13. The table is built with {@link WestCumulativeNormal}. Beyond 8.5
+ * standard deviations the tail, under 1e-17, is taken as 0.
+ *
+ * @author GuestMeNot
+ */
+public class TableCumulativeNormal implements CumulativeNormal {
+
+    private static final int POINTS_PER_UNIT = 64;
+    private static final double STEP = 1d / POINTS_PER_UNIT;
+    private static final double MAX = 8.5;
+
+    private static final double[] tails;
+    private static final double[] densities;
+
+    static {
+        int n = (int) (MAX * POINTS_PER_UNIT) + 1;
+        tails = new double[n];
+        densities = new double[n];
+        for (int i = 0; i < n; i++) {
+            double x = i * STEP;
+            double exponential = Math.exp(-x * x / 2);
+            tails[i] = WestCumulativeNormal.cdf(-x, exponential);
+            densities[i] = exponential / Math.sqrt(2 * Math.PI);
+        }
+    }
+
+    @Override
+    public double cdf(double x) {
+
+        double abs = Math.abs(x);
+
+        double tail;
+        if (abs >= MAX) {
+            tail = 0;
+        } else {
+            int i = (int) (abs * POINTS_PER_UNIT + .5);
+            double x0 = i * STEP;
+            double d = abs - x0;
+            double x0Squared = x0 * x0;
+
+            // Q(x0 + d) = Q(x0) - phi(x0) * (d - x0 d^2/2 + (x0^2 - 1) d^3/6 - (x0^3 - 3 x0) d^4/24)
+            double polynomial = -(x0Squared - 3) * x0 / 24;
+            polynomial = polynomial * d + (x0Squared - 1) / 6;
+            polynomial = polynomial * d - x0 / 2;
+            polynomial = polynomial * d + 1;
+
+            tail = tails[i] - densities[i] * polynomial * d;
+        }
+
+        return x < 0 ? tail : 1 - tail;
+
+    }
+
+    @Override
+    public double getMaxAbsoluteError() {
+        return 1e-12;
+    }
+
+}
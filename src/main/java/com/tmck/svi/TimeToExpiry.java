@@ -0,0 +1,85 @@
+package com.tmck.svi;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * Converts DTE in days to time to expiry in years for the Black-Scholes model. Safe to call from any number of
+ * pricing threads without locks or boxing.
+ * <p>
+ * Whole DTEs up to {@link #MAX_TABLE_DTE} come from a table built once. Fractional DTEs are divided directly, which is
+ * cheaper than any lookup, and a bounded lock-free set of the last fractional DTEs seen keeps the warning that DTE may
+ * have been given in years to once per DTE instead of once per call. A fractional DTE pushed out of the set by another
+ * may be warned about again.
+ *
+ * @author GuestMeNot
+ */
+public final class TimeToExpiry {
+
+    /**
+     * About 11 years which covers listed LEAPS.
+     */
+    public static final int MAX_TABLE_DTE = 4096;
+
+    /**
+     * The number of fractional DTEs remembered. A power of 2.
+     */
+    public static final int FRACTIONAL_CACHE_SIZE = 1024;
+
+    private static final double[] years = new double[MAX_TABLE_DTE + 1];
+
+    static {
+        for (int dte = 0; dte <= MAX_TABLE_DTE; dte++) {
+            years[dte] = dte / BlackScholes.TRADING_DAYS_IN_YEAR;
+        }
+    }
+
+    /**
+     * The raw bits of the fractional DTEs already warned about. 0 is the bits of 0d which is never fractional so it
+     * marks an empty slot.
+     */
+    private static final AtomicLongArray warned = new AtomicLongArray(FRACTIONAL_CACHE_SIZE);
+
+    private TimeToExpiry() {
+    }
+
+    /**
+     * @param dte - days to expiry.
+     * @return the time to expiry in years.
+     */
+    public static double toYears(double dte) {
+
+        int days = (int) dte;
+        if (days == dte && days >= 0 && days <= MAX_TABLE_DTE) {
+            return years[days];
+        }
+
+        // If we are more than 3 years out then it is a distinct possibility that DTE was expressed as calendars days not a fraction of a year!
+        // Besides if you are trading options with less than 3 DTE then the standard pricing models probably won't work.
+        // If you are trading options with more then 3 years to expiration then you are on your own.
+        if (dte % 1.0 > 0) {
+            warnOnce(dte);
+        }
+
+        return dte / BlackScholes.TRADING_DAYS_IN_YEAR;
+
+    }
+
+    private static void warnOnce(double dte) {
+
+        long bits = Double.doubleToRawLongBits(dte);
+        int slot = getSlot(bits);
+
+        long previous = warned.get(slot);
+        if (previous != bits && warned.compareAndSet(slot, previous, bits)) {
+            System.err.println("WARNING: perhaps DTE is in years: " + dte);
+        }
+
+    }
+
+    private static int getSlot(long bits) {
+        long hash = bits * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 32) & (FRACTIONAL_CACHE_SIZE - 1);
+    }
+
+}
@@ -0,0 +1,64 @@
+package com.tmck.svi;
+
+
+/**
+ * The double precision cumulative normal of Hart as given by West. Accurate to about 1e-15 absolute, and to about
+ * 1e-8 relative in the far tails.
+ *
+ * @author GuestMeNot
+ * @see "West G. (2005) Better approximations to cumulative normal functions"
+ * @see "Hart J. F. (1968) Computer Approximations 5666"
+ */
+public class WestCumulativeNormal implements CumulativeNormal {
+
+    @Override
+    public double cdf(double x) {
+        return cdf(x, Math.exp(-x * x / 2));
+    }
+
+    @Override
+    public double getMaxAbsoluteError() {
+        return 1e-15;
+    }
+
+    /**
+     * @param exponential - exp(-z^2 / 2), which the caller may already have.
+     */
+    static double cdf(double z, double exponential) {
+
+        double abs = Math.abs(z);
+        double c;
+
+        if (abs > 37) {
+            c = 0;
+        } else if (abs < 7.07106781186547) {
+            double numerator = 3.52624965998911E-02 * abs + 0.700383064443688;
+            numerator = numerator * abs + 6.37396220353165;
+            numerator = numerator * abs + 33.912866078383;
+            numerator = numerator * abs + 112.079291497871;
+            numerator = numerator * abs + 221.213596169931;
+            numerator = numerator * abs + 220.206867912376;
+
+            double denominator = 8.83883476483184E-02 * abs + 1.75566716318264;
+            denominator = denominator * abs + 16.064177579207;
+            denominator = denominator * abs + 86.7807322029461;
+            denominator = denominator * abs + 296.564248779674;
+            denominator = denominator * abs + 637.333633378831;
+            denominator = denominator * abs + 793.826512519948;
+            denominator = denominator * abs + 440.413735824752;
+
+            c = exponential * numerator / denominator;
+        } else {
+            double fraction = abs + 0.65;
+            fraction = abs + 4 / fraction;
+            fraction = abs + 3 / fraction;
+            fraction = abs + 2 / fraction;
+            fraction = abs + 1 / fraction;
+            c = exponential / fraction / 2.506628274631;
+        }
+
+        return z > 0 ? 1 - c : c;
+
+    }
+
+}
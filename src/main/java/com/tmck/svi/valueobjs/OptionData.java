@@ -1413,6 +1413,9 @@ public class OptionData extends MultiValueTimeSeriesPoint implements SymbolHolde
         return copy;
     }
 
+    /**
+     * @return the expiry or, if none was set, today plus the DTE which isn't kept so {@link #hasExpiryDate()} stays false.
+     */
     public Date getExpiryDate() {
 
         if (expiryDate == null) {
@@ -1421,13 +1424,20 @@ public class OptionData extends MultiValueTimeSeriesPoint implements SymbolHolde
             Calendar c = Calendar.getInstance();
             c.add(Calendar.DATE, (int) dte);
 
-            expiryDate = c.getTime();
+            return c.getTime();
 
         }
 
         return expiryDate;
     }
 
+    /**
+     * @return true if the expiry was set rather than made up from the DTE by {@link #getExpiryDate()}.
+     */
+    public boolean hasExpiryDate() {
+        return expiryDate != null;
+    }
+
     public void setExpiryDate(Date date) {
         expiryDate = date;
     }
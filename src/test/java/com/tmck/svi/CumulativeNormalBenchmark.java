@@ -0,0 +1,103 @@
+package com.tmck.svi;
+
+import java.util.Random;
+
+import org.apache.commons.math3.special.Erf;
+
+
+/**
+ * Prints the accuracy and speed of every {@link CumulativeNormal}.
+ * <p>
+ * The reference is the erfc of Commons Math which is accurate to double precision but far too slow to price with.
+ * The absolute error is sampled every 1e-4 over [-10, 10] and the relative error of the lower tail over [-10, 0]. The
+ * speed is the mean over 10 passes of a million standard normal arguments after as many passes to warm up.
+ * <p>
+ * Timing every implementation in one JVM makes the call to {@link CumulativeNormal#cdf(double)} megamorphic, unlike
+ * pricing with one selected implementation, so pass ABRAMOWITZ_STEGUN, WEST or TABLE to time just that one.
+ *
+ * @author GuestMeNot
+ */
+public class CumulativeNormalBenchmark {
+
+    private static final int ARGUMENTS = 1000000;
+    private static final int PASSES = 10;
+
+    public static void main(String[] args) {
+
+        CumulativeNormal[] cumulativeNormals = {
+                CumulativeNormal.ABRAMOWITZ_STEGUN, CumulativeNormal.WEST, CumulativeNormal.TABLE};
+        if (args.length > 0) {
+            cumulativeNormals = new CumulativeNormal[]{get(args[0])};
+        }
+
+        Random random = new Random(1);
+        double[] x = new double[ARGUMENTS];
+        for (int i = 0; i < ARGUMENTS; i++) {
+            x[i] = random.nextGaussian();
+        }
+
+        System.out.println("CumulativeNormal\tmax abs error\tbound\tmax rel error x<=0\tns per call");
+        for (CumulativeNormal cumulativeNormal : cumulativeNormals) {
+
+            double maxAbsoluteError = 0;
+            double maxRelativeError = 0;
+            for (int i = -100000; i <= 100000; i++) {
+                double z = i * 1e-4;
+                double expected = reference(z);
+                double error = Math.abs(cumulativeNormal.cdf(z) - expected);
+                maxAbsoluteError = Math.max(maxAbsoluteError, error);
+                if (z <= 0) {
+                    maxRelativeError = Math.max(maxRelativeError, error / expected);
+                }
+            }
+
+            time(cumulativeNormal, x);
+            double nanos = time(cumulativeNormal, x);
+
+            System.out.println(cumulativeNormal.getClass().getSimpleName() + "\t" + maxAbsoluteError + "\t"
+                    + cumulativeNormal.getMaxAbsoluteError() + "\t" + maxRelativeError + "\t" + nanos);
+        }
+
+    }
+
+    private static CumulativeNormal get(String name) {
+        switch (name) {
+            case "ABRAMOWITZ_STEGUN":
+                return CumulativeNormal.ABRAMOWITZ_STEGUN;
+            case "WEST":
+                return CumulativeNormal.WEST;
+            case "TABLE":
+                return CumulativeNormal.TABLE;
+            default:
+                throw new IllegalArgumentException("Expected ABRAMOWITZ_STEGUN, WEST or TABLE but was " + name);
+        }
+    }
+
+    private static double reference(double z) {
+        return Erf.erfc(-z / Math.sqrt(2)) / 2;
+    }
+
+    /**
+     * @return the mean nanoseconds per call.
+     */
+    private static double time(CumulativeNormal cumulativeNormal, double[] x) {
+
+        double sum = 0;
+        long start = System.nanoTime();
+        for (int pass = 0; pass < PASSES; pass++) {
+            for (double z : x) {
+                sum += cumulativeNormal.cdf(z);
+            }
+        }
+        long nanos = System.nanoTime() - start;
+
+        // Use the sum so the loop isn't optimized away.
+        if (Double.isNaN(sum)) {
+            System.out.println("NaN");
+        }
+
+        return (double) nanos / PASSES / x.length;
+
+    }
+
+}
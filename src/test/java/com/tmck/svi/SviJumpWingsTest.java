@@ -0,0 +1,173 @@
+package com.tmck.svi;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+
+/**
+ * Round trips between the raw and the jump-wings parameters of {@link SviJumpWings}.
+ *
+ * @author GuestMeNot
+ */
+public class SviJumpWingsTest {
+
+    private static final double TOLERANCE = 1e-10;
+
+    /**
+     * a, b, p, m, sigma and t of each expiry with a and b per year. None has its minimum variance at the money.
+     */
+    private static final double[][] SLICES = {
+            {0.0810, 0.3125, -0.6469, 0.0510, 0.1195, 10 / 365d},
+            {0.0827, 0.2993, -0.6384, 0.0634, 0.1105, 30 / 365d},
+            {0.0747, 0.3532, -0.6531, -0.0285, 0.1329, 60 / 365d},
+            {0.0884, 0.3084, 0.4000, 0.0266, 0.1143, 120 / 365d},
+            {0.0400, 0.1000, 0.0000, 0.1000, 0.0100, 2d},
+            {0.0400, 0.1000, -0.9900, 0.2000, 0.3000, 0.5},
+            {0.0400, 0.2000, -0.5000, 0.0000, 0.1000, 0.25},
+    };
+
+    @Test
+    public void rawRoundTrips() {
+
+        SviJumpWings.Raw raw = getRaw();
+        SviJumpWings.JumpWings jw = new SviJumpWings.JumpWings(raw.size());
+        SviJumpWings.Raw back = new SviJumpWings.Raw(raw.size());
+
+        SviJumpWings.toJumpWings(raw, jw);
+        SviJumpWings.toRaw(jw, back);
+
+        assertRaw(raw, back);
+
+    }
+
+    @Test
+    public void jumpWingsRoundTrip() {
+
+        SviJumpWings.Raw raw = getRaw();
+        SviJumpWings.JumpWings jw = new SviJumpWings.JumpWings(raw.size());
+        SviJumpWings.JumpWings back = new SviJumpWings.JumpWings(raw.size());
+
+        SviJumpWings.toJumpWings(raw, jw);
+        SviJumpWings.toRaw(jw, raw);
+        SviJumpWings.toJumpWings(raw, back);
+
+        for (int i = 0; i < raw.size(); i++) {
+            assertEquals("v " + i, jw.getV()[i], back.getV()[i], TOLERANCE);
+            assertEquals("psi " + i, jw.getPsi()[i], back.getPsi()[i], TOLERANCE);
+            assertEquals("p " + i, jw.getP()[i], back.getP()[i], TOLERANCE);
+            assertEquals("c " + i, jw.getC()[i], back.getC()[i], TOLERANCE);
+            assertEquals("vMin " + i, jw.getVMin()[i], back.getVMin()[i], TOLERANCE);
+        }
+
+    }
+
+    /**
+     * When the minimum variance is at the money the JW parameters don't say how wide the vertex is, so the raw
+     * parameters are a kink at the money with the same variance and wings.
+     */
+    @Test
+    public void atmMinimumKeepsTheVarianceAndWings() {
+
+        double p = -0.5;
+        double sigma = 0.1;
+
+        // The minimum of w(k) is at k = m - p * sigma / sqrt(1 - p^2).
+        SviJumpWings.Raw raw = new SviJumpWings.Raw(1);
+        raw.set(0, 0.04, 0.2, p, p * sigma / Math.sqrt(1 - p * p), sigma, 0.25);
+
+        SviJumpWings.JumpWings jw = new SviJumpWings.JumpWings(1);
+        SviJumpWings.JumpWings back = new SviJumpWings.JumpWings(1);
+
+        SviJumpWings.toJumpWings(raw, jw);
+        SviJumpWings.toRaw(jw, raw);
+        SviJumpWings.toJumpWings(raw, back);
+
+        assertEquals(0, raw.getM()[0], 0);
+        assertEquals(0, raw.getSigma()[0], 0);
+        assertEquals(jw.getV()[0], back.getV()[0], TOLERANCE);
+        assertEquals(jw.getP()[0], back.getP()[0], TOLERANCE);
+        assertEquals(jw.getC()[0], back.getC()[0], TOLERANCE);
+        assertEquals(jw.getVMin()[0], back.getVMin()[0], TOLERANCE);
+
+    }
+
+    @Test
+    public void flatSmileIsConstantVariance() {
+
+        SviJumpWings.JumpWings jw = new SviJumpWings.JumpWings(1);
+        jw.set(0, 0.04, 0, 0, 0, 0.04, 0.25);
+
+        SviJumpWings.Raw raw = new SviJumpWings.Raw(1);
+        SviJumpWings.toRaw(jw, raw);
+
+        assertEquals(0.04, raw.getA()[0], 0);
+        assertEquals(0, raw.getB()[0], 0);
+
+    }
+
+    /**
+     * The scalar helpers that {@link SVI} has always had map the JW parameters back to the same raw parameters.
+     */
+    @Test
+    public void scalarHelpersMatch() {
+
+        SviJumpWings.Raw raw = getRaw();
+
+        for (int i = 0; i < raw.size(); i++) {
+
+            double t = raw.getT()[i];
+            double a = raw.getA()[i] * t;
+            double b = raw.getB()[i] * t;
+            double p = raw.getP()[i];
+            double m = raw.getM()[i];
+            double sigma = raw.getSigma()[i];
+
+            double vT = SVI.getVT(a, b, p, m, sigma, t);
+            double wT = SVI.getW_tJW(vT, t);
+            double phiT = SVI.getPhiT(a, b, p, m, sigma, wT);
+            double pT = SVI.getPT(b, p, wT);
+            double cT = SVI.getCT(b, p, wT);
+            double vMinT = SVI.getVMinT(a, b, p, sigma, t);
+
+            double bJW = SVI.getB_JW(wT, cT, pT);
+            double pJW = SVI.getP_JW(wT, bJW, pT);
+            double alpha = SVI.getAlpha(pJW, phiT, wT, bJW);
+            double mJW = SVI.getM_JW(vT, vMinT, t, bJW, pJW, alpha);
+            double sigmaJW = SVI.getSigma_JW(alpha, mJW);
+            double aJW = SVI.getA_JW(vMinT, bJW, pJW, sigmaJW, t);
+
+            assertEquals("a " + i, a, aJW, TOLERANCE);
+            assertEquals("b " + i, b, bJW, TOLERANCE);
+            assertEquals("p " + i, p, pJW, TOLERANCE);
+            assertEquals("m " + i, m, mJW, TOLERANCE);
+            assertEquals("sigma " + i, sigma, sigmaJW, TOLERANCE);
+        }
+
+    }
+
+    private static SviJumpWings.Raw getRaw() {
+
+        SviJumpWings.Raw raw = new SviJumpWings.Raw(SLICES.length);
+        for (int i = 0; i < SLICES.length; i++) {
+            double[] slice = SLICES[i];
+            raw.set(i, slice[0], slice[1], slice[2], slice[3], slice[4], slice[5]);
+        }
+        return raw;
+
+    }
+
+    private static void assertRaw(SviJumpWings.Raw expected, SviJumpWings.Raw actual) {
+
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals("a " + i, expected.getA()[i], actual.getA()[i], TOLERANCE);
+            assertEquals("b " + i, expected.getB()[i], actual.getB()[i], TOLERANCE);
+            assertEquals("p " + i, expected.getP()[i], actual.getP()[i], TOLERANCE);
+            assertEquals("m " + i, expected.getM()[i], actual.getM()[i], TOLERANCE);
+            assertEquals("sigma " + i, expected.getSigma()[i], actual.getSigma()[i], TOLERANCE);
+            assertEquals("t " + i, expected.getT()[i], actual.getT()[i], 0);
+        }
+
+    }
+
+}